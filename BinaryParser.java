@@ -0,0 +1,315 @@
+package com.farrellf.TelemetryGUI;
+
+import java.util.Arrays;
+
+/**
+ * Interprets the compact binary protocol and populates the database with new values.
+ *
+ * The text format spends a 62-character line on each value. The binary format spends about four bytes,
+ * so many more values per second fit through the same serial link.
+ *
+ * The stream is a series of packets. Each packet is COBS encoded (Consistent Overhead Byte Stuffing), so it contains no zero bytes,
+ * and is followed by a single zero byte. A receiver that starts in the middle of the stream, or loses bytes, resynchronizes at the next zero.
+ * A decoded packet is a series of records, followed by a CRC-16 of the records (CCITT: polynomial 0x1021, initial value 0xFFFF),
+ * most significant byte first. There are two kinds of records:
+ *   Value:       id (1 byte, 0 to 254), value (zigzag encoded varint, 1 to 5 bytes, least significant 7 bits first)
+ *   Definition:  0xFF, id (1 byte), name length (1 byte), name (printable ASCII)
+ * The firmware should send the definitions of its items now and then, for example once per second, so a receiver that connects later
+ * learns the names. Values of an id that has not been defined yet are counted as unknown names and ignored.
+ * Each packet holds one screen of values, and is committed to the database as one Frame.
+ *
+ * Like the TelemetryParser, packets are decoded straight from the received bytes into a reusable buffer, and values go straight into
+ * a Frame, so nothing is allocated per packet. Names are checked by the CRC, so they are added to the Database the first time they are defined.
+ * If bytes are lost, for example dropped by a ByteQueue, discontinuity() forgets the partly decoded packet.
+ * The bytes up to the next zero are still decoded, and used if their CRC is correct, but not counted as rejected if it is not,
+ * since they are usually the end of a lost packet.
+ * Packets and rejected packets are counted in the Database's IngestMetrics as lines.
+ *
+ * @author Farrell Farahbod
+ * @version 1.0
+ */
+public class BinaryParser {
+
+	static final int MAX_PACKET = 2048;   // decoded bytes, including the CRC
+	static final int DEFINITION = 0xFF;   // record type of a name definition
+	static final int IDS = 255;           // value records use ids 0 to 254
+	static final int[] CRC_TABLE = new int[256];
+
+	static {
+		for(int i = 0; i < 256; i++) {
+			int crc = i << 8;
+			for(int bit = 0; bit < 8; bit++)
+				crc = ((crc & 0x8000) != 0) ? (crc << 1) ^ 0x1021 : (crc << 1);
+			CRC_TABLE[i] = crc & 0xFFFF;
+		}
+	}
+
+	private Database db;
+	private ChannelNameTable channels;
+	private int[] ids;               // channel id of each binary id, or -1 if not defined yet
+	private Frame frame;
+	private long timestamp;          // when the bytes being parsed were received
+
+	// COBS decoder state, which continues from one block of bytes to the next
+	private byte[] packet;
+	private int packetLength;
+	private int remaining;           // bytes left in the current COBS block
+	private boolean pendingZero;     // the current COBS block ends with an implied zero, unless it ends the packet
+	private boolean packetOverflow;  // true if the packet is too long to be valid
+	private boolean afterGap;        // true until the first packet after lost bytes has ended
+
+	private IngestMetrics metrics;
+	private int blockPackets;        // counts for the block being parsed
+	private int[] blockRejected;
+	private int blockUnknownNames;
+
+	public BinaryParser(Database db) {
+		this(db, "");
+	}
+
+	/**
+	 * @param db			Database to add the values to
+	 * @param namespace		Namespace for the item names, or "" for the default namespace. See ChannelNameTable.
+	 */
+	public BinaryParser(Database db, String namespace) {
+		this.db = db;
+		this.channels = new ChannelNameTable(db, namespace);
+		this.ids = new int[IDS];
+		Arrays.fill(ids, -1);
+		this.frame = new Frame();
+		this.packet = new byte[MAX_PACKET];
+		this.metrics = db.getIngestMetrics();
+		this.blockRejected = new int[IngestMetrics.Rejection.values().length];
+	}
+
+	/**
+	 * Parse a block of incoming bytes. Packets may be split across blocks.
+	 *
+	 * @param buffer	Buffer containing the bytes
+	 * @param offset	Index of the first byte
+	 * @param length	Number of bytes
+	 */
+	public void parse(byte[] buffer, int offset, int length) {
+		parse(buffer, offset, length, System.nanoTime());
+	}
+
+	/**
+	 * Parse a block of incoming bytes that was read earlier, for example taken from a ByteQueue. Packets may be split across blocks.
+	 *
+	 * @param buffer	Buffer containing the bytes
+	 * @param offset	Index of the first byte
+	 * @param length	Number of bytes
+	 * @param readTime	System.nanoTime() when the bytes were read, used as the timestamp of their values
+	 */
+	public void parse(byte[] buffer, int offset, int length, long readTime) {
+		long start = System.nanoTime();
+		timestamp = readTime;
+		int end = offset + length;
+
+		for(int i = offset; i < end; i++) {
+			int b = buffer[i] & 0xFF;
+
+			if(b == 0) {
+				// end of a packet
+				if(packetOverflow || remaining != 0)
+					reject(IngestMetrics.Rejection.LENGTH); // too long, or the last COBS block is incomplete
+				else if(packetLength > 0)
+					parsePacket();
+				packetLength = 0;
+				remaining = 0;
+				pendingZero = false;
+				packetOverflow = false;
+				afterGap = false;
+			} else if(remaining == 0) {
+				// COBS code byte: the number of bytes until the next zero, plus one
+				if(pendingZero)
+					append(0);
+				remaining = b - 1;
+				pendingZero = (b != 0xFF);
+			} else {
+				append(b);
+				remaining--;
+			}
+		}
+
+		metrics.recordBlock(length, blockPackets, blockRejected, blockUnknownNames, System.nanoTime() - start);
+		blockPackets = 0;
+		for(int i = 0; i < blockRejected.length; i++)
+			blockRejected[i] = 0;
+		blockUnknownNames = 0;
+	}
+
+	private void append(int b) {
+		if(packetLength == MAX_PACKET) {
+			packetOverflow = true; // noise, or a lost zero byte, it will be rejected
+			return;
+		}
+		packet[packetLength++] = (byte) b;
+	}
+
+	/**
+	 * Bytes were lost before the next block: forget the partly decoded packet, and start decoding again at the next byte.
+	 */
+	public void discontinuity() {
+		packetLength = 0;
+		remaining = 0;
+		pendingZero = false;
+		packetOverflow = false;
+		frame.clear();
+		afterGap = true;
+	}
+
+	/**
+	 * Count a packet that was rejected as corrupt.
+	 *
+	 * @param reason	Why it was rejected
+	 */
+	private void reject(IngestMetrics.Rejection reason) {
+		if(afterGap)
+			return; // the end of a lost packet, not corruption
+		blockPackets++;
+		blockRejected[reason.ordinal()]++;
+	}
+
+	/**
+	 * Check the CRC of a decoded packet, then add its values to a Frame and commit it.
+	 * A packet with a malformed record is rejected as a whole, so a frame is never committed with only some of its values.
+	 */
+	private void parsePacket() {
+		int recordsEnd = packetLength - 2;
+		if(recordsEnd < 0) {
+			reject(IngestMetrics.Rejection.LENGTH);
+			return;
+		}
+		int expected = ((packet[recordsEnd] & 0xFF) << 8) | (packet[recordsEnd + 1] & 0xFF);
+		if(crc(packet, 0, recordsEnd) != expected) {
+			reject(IngestMetrics.Rejection.CHECKSUM);
+			return;
+		}
+
+		// check the records before using any of them
+		for(int i = 0; i < recordsEnd; ) {
+			int id = packet[i++] & 0xFF;
+			if(id == DEFINITION) {
+				if(i + 2 > recordsEnd || i + 2 + (packet[i + 1] & 0xFF) > recordsEnd || packet[i + 1] == 0 || (packet[i] & 0xFF) == DEFINITION) {
+					reject(IngestMetrics.Rejection.NAME); // truncated, empty, or an invalid id
+					return;
+				}
+				int nameStart = i + 2;
+				int nameEnd = nameStart + (packet[i + 1] & 0xFF);
+				for(int j = nameStart; j < nameEnd; j++) {
+					if(packet[j] < 0x21 || packet[j] > 0x7E) {
+						reject(IngestMetrics.Rejection.NAME); // not printable ASCII
+						return;
+					}
+				}
+				i = nameEnd;
+			} else {
+				int shift = 0;
+				while(i < recordsEnd && (packet[i] & 0x80) != 0 && shift < 28) {
+					i++;
+					shift += 7;
+				}
+				if(i == recordsEnd || (packet[i] & 0x80) != 0) {
+					reject(IngestMetrics.Rejection.VALUE); // truncated, or longer than 5 bytes
+					return;
+				}
+				i++;
+			}
+		}
+
+		// use the records
+		blockPackets++;
+		for(int i = 0; i < recordsEnd; ) {
+			int id = packet[i++] & 0xFF;
+			if(id == DEFINITION) {
+				int length = packet[i + 1] & 0xFF;
+				ids[packet[i] & 0xFF] = channels.define(packet, i + 2, length);
+				i += 2 + length;
+			} else {
+				int encoded = 0;
+				int shift = 0;
+				int b;
+				do {
+					b = packet[i++];
+					encoded |= (b & 0x7F) << shift;
+					shift += 7;
+				} while((b & 0x80) != 0);
+				int value = (encoded >>> 1) ^ -(encoded & 1); // zigzag decode
+
+				int channel = ids[id];
+				if(channel == -1) {
+					blockUnknownNames++; // not defined yet
+					continue;
+				}
+				if(frame.contains(channel))
+					commitFrame(); // the item repeated within the packet
+				frame.add(channel, value, timestamp);
+			}
+		}
+		commitFrame();
+	}
+
+	/**
+	 * Commit the values collected so far to the database, and start a new frame.
+	 */
+	public void commitFrame() {
+		if(frame.size() == 0)
+			return;
+
+		db.commitFrame(frame);
+		frame.clear();
+	}
+
+	/**
+	 * Encode a packet the way the firmware does: append the CRC, COBS encode, and end with a zero byte. Used by the TelemetryGenerator.
+	 *
+	 * @param records	Buffer containing the records, with two spare bytes after them for the CRC
+	 * @param length	Number of bytes of records
+	 * @param dest		Buffer for the encoded packet, with room for length + 4 + length / 254 bytes
+	 * @param offset	Index in dest of the first byte
+	 * @return			Number of bytes written to dest
+	 */
+	static int encodePacket(byte[] records, int length, byte[] dest, int offset) {
+		int crc = crc(records, 0, length);
+		records[length] = (byte) (crc >>> 8);
+		records[length + 1] = (byte) crc;
+		length += 2;
+
+		int codeIndex = offset; // where the code byte of the current COBS block goes
+		int out = offset + 1;
+		int code = 1;
+		for(int i = 0; i < length; i++) {
+			if(records[i] == 0) {
+				dest[codeIndex] = (byte) code;
+				codeIndex = out++;
+				code = 1;
+			} else {
+				dest[out++] = records[i];
+				code++;
+				if(code == 0xFF) {
+					dest[codeIndex] = (byte) code;
+					codeIndex = out++;
+					code = 1;
+				}
+			}
+		}
+		dest[codeIndex] = (byte) code;
+		dest[out++] = 0;
+		return out - offset;
+	}
+
+	/**
+	 * @param bytes		Buffer
+	 * @param offset	Index of the first byte
+	 * @param length	Number of bytes
+	 * @return			CRC-16 of the bytes (CCITT: polynomial 0x1021, initial value 0xFFFF)
+	 */
+	static int crc(byte[] bytes, int offset, int length) {
+		int crc = 0xFFFF;
+		for(int i = offset; i < offset + length; i++)
+			crc = ((crc << 8) ^ CRC_TABLE[((crc >>> 8) ^ bytes[i]) & 0xFF]) & 0xFFFF;
+		return crc;
+	}
+
+}
@@ -0,0 +1,308 @@
+package com.farrellf.TelemetryGUI;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded queue for handing blocks of received bytes from the thread reading a port to the thread parsing them,
+ * so a stall while parsing or storing (a GC pause, a slow LineGraph query holding a lock) never delays reading the port.
+ *
+ * There is exactly one producer and one consumer. The bytes are kept in a preallocated ring, and the producer reads from the port straight
+ * into its free space, so neither side allocates. Each read is queued as a block: a record of where its bytes start, how many there are,
+ * and when they were read. A block only takes as many bytes of the ring as were read, so many small reads (DATA_AVAILABLE often reports
+ * a few dozen bytes) use the ring as well as a few large ones, and the capacity really is a number of bytes.
+ * The records are kept in a second ring, with positions that are AtomicLongs, like in the FrameQueue.
+ * The consumer copies a block out and then advances the read position with a compare-and-set, because under the DROP_OLDEST policy
+ * the producer may take the oldest block back. If that happens while the consumer is copying it, the compare-and-set fails
+ * and the consumer simply takes the next block.
+ *
+ * When the queue is full the Policy decides what happens. Each dropped block is counted, here and in the Database's IngestMetrics.
+ * After a poll(), isAfterGap() tells the consumer whether blocks were dropped just before that block, so a parser does not join
+ * the start of a line from before the gap to the end of a line after it.
+ *
+ * @author Farrell Farahbod
+ * @version 1.0
+ */
+public class ByteQueue {
+
+	/**
+	 * What the producer does when the queue is full.
+	 */
+	public enum Policy {
+		BLOCK("Block"),             // wait for the parser, so bytes back up into the serial driver
+		DROP_OLDEST("Drop oldest"), // discard the oldest queued block, keeping the newest data
+		DROP_NEWEST("Drop newest"); // discard the block just read, keeping the queued data
+
+		final String description;
+
+		Policy(String description) {
+			this.description = description;
+		}
+
+		@Override
+		public String toString() {
+			return description;
+		}
+	}
+
+	static final long BLOCK_WAIT = 100000; // ns to sleep while waiting under the BLOCK policy
+	static final int BYTES_PER_BLOCK = 32; // the ring of records is sized for blocks of this many bytes on average
+
+	private final byte[] bytes;
+	private final int byteMask;
+	private final int maxBlock;
+	private final int[] starts;             // index in bytes of the first byte of each block
+	private final int[] lengths;
+	private final long[] readTimes;
+	private final boolean[] gaps;           // true if blocks were dropped just before each block
+	private final int blockMask;
+	private final byte[] overflow;          // read into this when the queue is full, under the drop policies
+	private final Policy policy;
+	private final IngestMetrics metrics;
+
+	private final AtomicLong written;       // blocks written by the producer
+	private final AtomicLong read;          // advanced by the consumer, and by the producer when dropping the oldest block
+	private volatile Thread waitingConsumer;
+	private volatile long droppedBlocks;    // only written by the producer
+	private volatile long droppedBytes;     // only written by the producer
+	private long writePosition;             // bytes written, only used by the producer
+	private boolean writingOverflow;        // only used by the producer
+	private int writeOffset;                // only used by the producer
+	private int writeLength;                // only used by the producer
+	private boolean droppedNewest;          // the block just read was dropped, only used by the producer
+	private long lastReadTime;              // only used by the consumer
+	private boolean lastAfterGap;           // only used by the consumer
+	private long nextBlock;                 // position of the block after the last one polled, only used by the consumer
+
+	/**
+	 * Create an empty queue.
+	 *
+	 * @param capacity		Number of bytes that can be queued. Rounded up to a power of two.
+	 * @param maxBlock		Most bytes per block, the most the producer reads at once
+	 * @param policy		What to do when the queue is full
+	 * @param metrics		Metrics to count dropped blocks in
+	 */
+	public ByteQueue(int capacity, int maxBlock, Policy policy, IngestMetrics metrics) {
+		capacity = Channel.roundCapacity(Math.max(capacity, maxBlock));
+		int blockCount = Channel.roundCapacity(Math.max(capacity / BYTES_PER_BLOCK, 2));
+
+		bytes = new byte[capacity];
+		byteMask = capacity - 1;
+		this.maxBlock = maxBlock;
+		starts = new int[blockCount];
+		lengths = new int[blockCount];
+		readTimes = new long[blockCount];
+		gaps = new boolean[blockCount];
+		blockMask = blockCount - 1;
+		overflow = new byte[maxBlock];
+		this.policy = policy;
+		this.metrics = metrics;
+
+		written = new AtomicLong(0);
+		read = new AtomicLong(0);
+		droppedBlocks = 0;
+		droppedBytes = 0;
+	}
+
+	/**
+	 * Get the buffer to read the next block into, starting at getWriteOffset() and at most getWriteLength() bytes.
+	 * Only call this from the producer thread, and follow it with publish(). Under the BLOCK policy this waits until there is room.
+	 *
+	 * @return							The buffer
+	 * @throws InterruptedException		If the producer thread is interrupted while waiting
+	 */
+	public byte[] getWriteBuffer() throws InterruptedException {
+		int free;
+		while((free = getFreeBytes(read.get())) == 0) {
+			if(policy != Policy.BLOCK) {
+				writingOverflow = true;
+				writeOffset = 0;
+				writeLength = maxBlock;
+				return overflow;
+			}
+			LockSupport.parkNanos(BLOCK_WAIT);
+			if(Thread.interrupted())
+				throw new InterruptedException();
+		}
+		writingOverflow = false;
+		writeOffset = (int) (writePosition & byteMask);
+		writeLength = Math.min(Math.min(free, maxBlock), bytes.length - writeOffset); // a read never wraps around the end of the ring
+		return bytes;
+	}
+
+	/**
+	 * @return			Index in the buffer from getWriteBuffer() to read into
+	 */
+	public int getWriteOffset() {
+		return writeOffset;
+	}
+
+	/**
+	 * @return			Most bytes to read into the buffer from getWriteBuffer()
+	 */
+	public int getWriteLength() {
+		return writeLength;
+	}
+
+	/**
+	 * @param oldest	Position of the oldest queued block
+	 * @return			Number of bytes that can be queued, or 0 if the ring of bytes or the ring of records is full
+	 */
+	private int getFreeBytes(long oldest) {
+		long position = written.get();
+		if(position == oldest)
+			return bytes.length;
+		if(position - oldest > blockMask)
+			return 0;
+		int used = (int) ((writePosition - starts[(int) (oldest & blockMask)]) & byteMask);
+		return (used == 0) ? 0 : bytes.length - used; // blocks are never empty, so no used bytes means the ring is full
+	}
+
+	/**
+	 * Queue the bytes that were read into the buffer from getWriteBuffer(). Only call this from the producer thread.
+	 *
+	 * @param length		Number of bytes read
+	 * @param readTime		System.nanoTime() when they were read
+	 */
+	public void publish(int length, long readTime) {
+		if(length <= 0)
+			return;
+
+		long position = written.get();
+		if(writingOverflow) {
+			if(policy == Policy.DROP_NEWEST) {
+				drop(length);
+				droppedNewest = true; // the next block follows a gap
+				return;
+			}
+			// DROP_OLDEST: take back the oldest blocks until the new one fits, unless the consumer takes them meanwhile
+			long oldest;
+			while(getFreeBytes(oldest = read.get()) < length) {
+				if(read.compareAndSet(oldest, oldest + 1))
+					drop(lengths[(int) (oldest & blockMask)]);
+			}
+			int offset = (int) (writePosition & byteMask);
+			int firstPart = Math.min(length, bytes.length - offset);
+			System.arraycopy(overflow, 0, bytes, offset, firstPart);
+			System.arraycopy(overflow, firstPart, bytes, 0, length - firstPart);
+		}
+
+		int slot = (int) (position & blockMask);
+		starts[slot] = (int) (writePosition & byteMask);
+		lengths[slot] = length;
+		readTimes[slot] = readTime;
+		gaps[slot] = droppedNewest;
+		droppedNewest = false;
+		writePosition += length;
+		written.set(position + 1); // not lazySet(): the store must be visible before waitingConsumer is checked, or a wakeup could be missed
+
+		Thread consumer = waitingConsumer;
+		if(consumer != null)
+			LockSupport.unpark(consumer);
+	}
+
+	private void drop(int length) {
+		droppedBlocks++;
+		droppedBytes += length;
+		metrics.recordDrop(length);
+	}
+
+	/**
+	 * Remove the oldest block from the queue. Only call this from the consumer thread.
+	 *
+	 * @param dest		Buffer to copy the bytes into, at least maxBlock bytes
+	 * @return			Number of bytes, or -1 if the queue was empty
+	 */
+	public int poll(byte[] dest) {
+		while(true) {
+			long position = read.get();
+			if(position == written.get())
+				return -1;
+
+			int slot = (int) (position & blockMask);
+			int start = starts[slot];
+			int length = Math.min(lengths[slot], dest.length);
+			long readTime = readTimes[slot];
+			boolean gap = gaps[slot];
+			int firstPart = Math.min(length, bytes.length - start);
+			System.arraycopy(bytes, start, dest, 0, firstPart);
+			System.arraycopy(bytes, 0, dest, firstPart, length - firstPart);
+			if(read.compareAndSet(position, position + 1)) {
+				lastReadTime = readTime;
+				lastAfterGap = gap || position != nextBlock; // blocks dropped by the producer are skipped by the read position
+				nextBlock = position + 1;
+				return length;
+			}
+			// the producer dropped this block while it was being copied, so try the next one
+		}
+	}
+
+	/**
+	 * Remove the oldest block from the queue, waiting for one if the queue is empty. Only call this from the consumer thread.
+	 *
+	 * @param dest						Buffer to copy the bytes into, at least maxBlock bytes
+	 * @param timeout					Longest time to wait, in milliseconds
+	 * @return							Number of bytes, or -1 if the queue was still empty after the timeout
+	 * @throws InterruptedException		If the consumer thread is interrupted while waiting
+	 */
+	public int poll(byte[] dest, long timeout) throws InterruptedException {
+		int length = poll(dest);
+		if(length >= 0)
+			return length;
+
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		waitingConsumer = Thread.currentThread();
+		try {
+			while(true) {
+				length = poll(dest); // check again after announcing the wait, so a publish() in between is not missed
+				if(length >= 0)
+					return length;
+				long remaining = deadline - System.nanoTime();
+				if(remaining <= 0)
+					return -1;
+				LockSupport.parkNanos(this, remaining);
+				if(Thread.interrupted())
+					throw new InterruptedException();
+			}
+		} finally {
+			waitingConsumer = null;
+		}
+	}
+
+	/**
+	 * @return			System.nanoTime() when the bytes returned by the last poll() were read
+	 */
+	public long getReadTime() {
+		return lastReadTime;
+	}
+
+	/**
+	 * @return			True if blocks were dropped between the block returned by the last poll() and the one polled before it
+	 */
+	public boolean isAfterGap() {
+		return lastAfterGap;
+	}
+
+	/**
+	 * @return			Number of blocks dropped because the queue was full
+	 */
+	public long getDroppedBlocks() {
+		return droppedBlocks;
+	}
+
+	/**
+	 * @return			Number of bytes in the dropped blocks
+	 */
+	public long getDroppedBytes() {
+		return droppedBytes;
+	}
+
+	/**
+	 * @return			The policy used when the queue is full
+	 */
+	public Policy getPolicy() {
+		return policy;
+	}
+
+}
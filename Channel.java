@@ -0,0 +1,318 @@
+package com.farrellf.TelemetryGUI;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Stores the recent history of one telemetry item.
+ * Values are kept in a fixed-size ring buffer of primitive ints, so adding a value never allocates.
+ * A parallel ring buffer of primitive longs holds the System.nanoTime() timestamp of each value.
+ * The ring buffer is the hot window: recent values that are read often and cheaply.
+ * Once the buffer is full, the oldest values are sealed into compressed Chunks just before they are overwritten,
+ * so the whole session is retained at a few bytes per value. Chunks are read through a ChunkCache.
+ *
+ * Values are identified by their index: the first value ever added has index 0, the next has index 1, etc.
+ *
+ * A Pyramid of min/max/mean summaries is updated as values are added. It reaches much further back than the ring buffer,
+ * at coarser resolutions, so long ranges of history can be drawn quickly.
+ * Running Statistics (all-time, and over a sliding window of recent values) are also updated as values are added.
+ *
+ * @author Farrell Farahbod
+ * @version 1.0
+ */
+public class Channel {
+
+	static final int CHUNK_SIZE = 4096; // values per chunk, a power of two
+
+	final int id;
+	final String name;
+	final int namespace;       // index of the Database namespace
+	final StampedLock lock;    // the namespace's lock
+	final int[] values;
+	final long[] timestamps;
+	final int mask;
+	final Pyramid pyramid;
+	final Statistics statistics;
+	final int chunkSize;
+	long count; // number of values ever added, published through the namespace's lock
+	long commitTime; // System.nanoTime() when the newest value was committed, only set while the LatencyTracer is enabled
+
+	// sealed history, older than the ring buffer. Chunks are consecutive and never change once published.
+	private volatile Chunk[] chunks;
+	private volatile int chunkCount;
+	private long chunkBytes;
+	private byte[] encodeBuffer;
+
+	/**
+	 * Create an empty channel.
+	 *
+	 * @param id			Channel number assigned by the Database
+	 * @param name			Name of the tracked item
+	 * @param capacity		Number of values to retain. Rounded up to a power of two.
+	 * @param namespace		Index of the namespace assigned by the Database
+	 * @param lock			Lock that publishes the values of the namespace
+	 */
+	public Channel(int id, String name, int capacity, int namespace, StampedLock lock) {
+		int size = roundCapacity(capacity);
+
+		this.id = id;
+		this.name = name;
+		this.namespace = namespace;
+		this.lock = lock;
+		this.values = new int[size];
+		this.timestamps = new long[size];
+		this.mask = size - 1;
+		this.pyramid = new Pyramid();
+		this.statistics = new Statistics(Math.min(Statistics.WINDOW, size));
+		this.chunkSize = Math.min(CHUNK_SIZE, size);
+		this.count = 0;
+		this.chunks = new Chunk[16];
+		this.chunkCount = 0;
+		this.chunkBytes = 0;
+	}
+
+	/**
+	 * @param capacity	Requested number of values to retain
+	 * @return			Actual number of values that will be retained: the next power of two
+	 */
+	public static int roundCapacity(int capacity) {
+		int size = 1;
+		while(size < capacity)
+			size <<= 1;
+		return size;
+	}
+
+	/**
+	 * @return		Number of values retained by the ring buffer
+	 */
+	public int getCapacity() {
+		return values.length;
+	}
+
+	/**
+	 * @return		Index of the oldest value still in the ring buffer
+	 */
+	public long getOldestIndex() {
+		return Math.max(0, count - values.length);
+	}
+
+	/**
+	 * Append a value. If the buffer is full, the oldest value is overwritten, after sealing it into a Chunk if it starts one.
+	 *
+	 * @param value		New value
+	 * @param timestamp	System.nanoTime() when the value was received
+	 */
+	public void add(int value, long timestamp) {
+		long overwritten = count - values.length;
+		if(overwritten >= 0 && (overwritten & (chunkSize - 1)) == 0 && overwritten >= pyramid.first)
+			seal(overwritten);
+
+		int leaving = values[(int) ((count - statistics.window) & mask)]; // read before it may be overwritten
+		int slot = (int) (count & mask);
+		values[slot] = value;
+		timestamps[slot] = timestamp;
+		pyramid.add(count, value);
+		statistics.add(count, value, leaving, values, mask);
+		count++;
+	}
+
+	/**
+	 * Compress the oldest chunk of the ring buffer and publish it.
+	 *
+	 * @param firstIndex	Index of the first value of the chunk, which must start at a multiple of chunkSize
+	 */
+	private void seal(long firstIndex) {
+		if(encodeBuffer == null)
+			encodeBuffer = new byte[Chunk.getMaxEncodedSize(chunkSize)];
+		Chunk chunk = Chunk.encode(firstIndex, values, timestamps, (int) (firstIndex & mask), chunkSize, encodeBuffer);
+
+		Chunk[] chunks = this.chunks;
+		if(chunkCount == chunks.length) {
+			chunks = Arrays.copyOf(chunks, chunks.length * 2);
+			this.chunks = chunks;
+		}
+		chunks[chunkCount] = chunk;
+		chunkCount++; // publishes the chunk
+		chunkBytes += chunk.data.length;
+	}
+
+	/**
+	 * @return		Index of the oldest sealed value, or -1 if no chunks exist
+	 */
+	public long getOldestSealedIndex() {
+		if(chunkCount == 0)
+			return -1;
+		return chunks[0].firstIndex;
+	}
+
+	/**
+	 * @return		Number of bytes used by the sealed chunks
+	 */
+	public long getSealedBytes() {
+		return chunkBytes;
+	}
+
+	/**
+	 * @param index		Index of a value
+	 * @return			The chunk containing that value, or null if the value has not been sealed
+	 */
+	public Chunk getChunk(long index) {
+		int n = chunkCount;
+		Chunk[] chunks = this.chunks;
+		if(n == 0 || index < chunks[0].firstIndex)
+			return null;
+		long i = (index - chunks[0].firstIndex) / chunkSize;
+		return (i < n) ? chunks[(int) i] : null;
+	}
+
+	/**
+	 * @return		Most recent value, or -1 if no values exist
+	 */
+	public int getLast() {
+		if(count == 0)
+			return -1;
+		else
+			return values[(int) ((count - 1) & mask)];
+	}
+
+	/**
+	 * Copy a range of values into an array.
+	 * The range must not extend past the newest value.
+	 * Values that are no longer in the ring buffer are skipped, so the copied values always end at dest[length - 1].
+	 *
+	 * @param firstIndex	Index of the first value to copy
+	 * @param dest			Destination array
+	 * @param length		Number of values to copy
+	 * @return				Number of values copied, they occupy dest[length - returned ... length - 1]
+	 */
+	public int copy(long firstIndex, int[] dest, int length) {
+		return copy(values, firstIndex, dest, length);
+	}
+
+	/**
+	 * Copy a range of timestamps into an array.
+	 * The range must not extend past the newest value.
+	 * Timestamps that are no longer in the ring buffer are skipped, so the copied timestamps always end at dest[length - 1].
+	 *
+	 * @param firstIndex	Index of the first timestamp to copy
+	 * @param dest			Destination array
+	 * @param length		Number of timestamps to copy
+	 * @return				Number of timestamps copied, they occupy dest[length - returned ... length - 1]
+	 */
+	public int copyTimestamps(long firstIndex, long[] dest, int length) {
+		return copy(timestamps, firstIndex, dest, length);
+	}
+
+	private int copy(Object ring, long firstIndex, Object dest, int length) {
+		long oldest = getOldestIndex();
+		int skipped = 0;
+		if(firstIndex < oldest) {
+			skipped = (int) Math.min(length, oldest - firstIndex);
+			firstIndex = oldest;
+		}
+
+		// copy in at most two pieces, since the range may wrap around the end of the ring
+		int position = skipped;
+		while(position < length) {
+			int start = (int) (firstIndex & mask);
+			int n = Math.min(length - position, values.length - start);
+			System.arraycopy(ring, start, dest, position, n);
+			position += n;
+			firstIndex += n;
+		}
+
+		return length - skipped;
+	}
+
+	/**
+	 * Copy a range of sealed values and/or timestamps into arrays.
+	 * The range must end at or before the newest sealed value.
+	 * Values older than the oldest chunk are skipped, so the copied values always end at index length - 1 of the arrays.
+	 *
+	 * @param cache			Cache of decoded chunks
+	 * @param firstIndex	Index of the first value to copy
+	 * @param valuesDest	Destination for the values, or null
+	 * @param timestampsDest	Destination for the timestamps, or null
+	 * @param length		Number of values to copy
+	 * @return				Number of values copied, they occupy [length - returned ... length - 1] of the arrays, or 0 if the range extends past the sealed values
+	 */
+	public int copySealed(ChunkCache cache, long firstIndex, int[] valuesDest, long[] timestampsDest, int length) {
+		long oldest = getOldestSealedIndex();
+		Chunk last = getChunk(firstIndex + length - 1);
+		if(oldest == -1 || last == null)
+			return 0;
+
+		int skipped = 0;
+		if(firstIndex < oldest) {
+			skipped = (int) Math.min(length, oldest - firstIndex);
+			firstIndex = oldest;
+		}
+
+		int position = skipped;
+		while(position < length) {
+			Chunk chunk = getChunk(firstIndex);
+			int offset = (int) (firstIndex - chunk.firstIndex);
+			int n = Math.min(length - position, chunk.size - offset);
+			cache.copy(chunk, offset, valuesDest, timestampsDest, position, n);
+			position += n;
+			firstIndex += n;
+		}
+
+		return length - skipped;
+	}
+
+	/**
+	 * Find the first sealed value received at or after a point in time.
+	 *
+	 * @param cache			Cache of decoded chunks
+	 * @param timestamp		System.nanoTime() value
+	 * @param tolerance		Nanoseconds by which the value found may be early or late. If the chunk's marked timestamps are this close,
+	 *						the chunk is not decoded, the index is estimated from the marks instead.
+	 * @return				Index of the value, or -1 if all sealed values are older
+	 */
+	public long findSealedIndex(ChunkCache cache, long timestamp, long tolerance) {
+		int n = chunkCount;
+		Chunk[] chunks = this.chunks;
+
+		// binary search for the first chunk that ends at or after the timestamp
+		int low = 0;
+		int high = n;
+		while(low < high) {
+			int middle = (low + high) >>> 1;
+			if(chunks[middle].lastTimestamp < timestamp)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		if(low == n)
+			return -1;
+
+		Chunk chunk = chunks[low];
+		int position = chunk.estimatePosition(timestamp, tolerance);
+		if(position == -1)
+			position = cache.findTimestamp(chunk, timestamp);
+		return chunk.firstIndex + position;
+	}
+
+	/**
+	 * Find the first value received at or after a point in time.
+	 * Only the values in the ring buffer are searched.
+	 *
+	 * @param timestamp		System.nanoTime() value
+	 * @return				Index of the value, or the number of values ever added if all values are older
+	 */
+	public long findIndex(long timestamp) {
+		// binary search, timestamps never decrease
+		long low = getOldestIndex();
+		long high = count;
+		while(low < high) {
+			long middle = (low + high) >>> 1;
+			if(timestamps[(int) (middle & mask)] < timestamp)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+}
@@ -0,0 +1,176 @@
+package com.farrellf.TelemetryGUI;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Maps item names, as they appear in incoming text, to Database channel ids.
+ *
+ * Each parser owns one of these tables, so no locking is needed.
+ * It is an open-addressing hash table that stores each name as ASCII bytes,
+ * so a name can be looked up directly from the bytes of a line without creating a String.
+ * A String is only created the first time a name is seen, when the channel is added to the Database.
+ *
+ * Names that are not already in the Database must be seen twice before a channel is created for them,
+ * so a name mangled by line noise (which almost never repeats) does not create a junk channel.
+ * Until then, lookup() returns -1 and the value should be ignored.
+ * Names protected by a checksum, like those defined in the binary protocol (see BinaryParser), are added right away with define().
+ *
+ * Each port can have its own namespace, which prefixes the names of its items in the Database (for example "ttyUSB1:AngleX"),
+ * so several robots or microcontrollers can send items with the same names.
+ *
+ * @author Farrell Farahbod
+ * @version 1.0
+ */
+public class ChannelNameTable {
+
+	static final int EMPTY = -1;
+	static final int PENDING = -2;   // seen once, not yet added to the database
+	static final int MAX_PENDING = 1024;
+
+	private Database db;
+	private String prefix;     // namespace and separator, or "" for the default namespace
+	private int[] ids;         // channel id, EMPTY or PENDING
+	private byte[][] names;
+	private int size;
+	private int pendingCount;
+
+	public ChannelNameTable(Database db) {
+		this(db, "");
+	}
+
+	/**
+	 * @param db			Database to add channels to
+	 * @param namespace		Namespace of the names, or "" for the default namespace
+	 */
+	public ChannelNameTable(Database db, String namespace) {
+		this.db = db;
+		this.prefix = namespace.isEmpty() ? "" : namespace + Database.NAMESPACE_SEPARATOR;
+		resize(64);
+	}
+
+	/**
+	 * Get the channel id for a name, adding the channel to the Database if necessary.
+	 * A name that is new to the Database is only added the second time it is seen.
+	 *
+	 * @param text		Buffer containing the name as ASCII bytes
+	 * @param offset	Index of the first byte of the name
+	 * @param length	Number of bytes in the name
+	 * @return			Channel id, or -1 if the name is new and has only been seen once
+	 */
+	public int lookup(byte[] text, int offset, int length) {
+		int hash = hash(text, offset, length);
+
+		int mask = ids.length - 1;
+		for(int slot = hash & mask; ; slot = (slot + 1) & mask) {
+			if(ids[slot] == EMPTY)
+				return add(Arrays.copyOfRange(text, offset, offset + length));
+			if(equals(names[slot], text, offset, length)) {
+				if(ids[slot] == PENDING) {
+					// second time this name has been seen
+					ids[slot] = db.addChannel(prefix + new String(names[slot], StandardCharsets.ISO_8859_1));
+					pendingCount--;
+				}
+				return ids[slot];
+			}
+		}
+	}
+
+	/**
+	 * Get the channel id for a name, adding the channel to the Database right away if necessary.
+	 * Only use this for names protected by a checksum, which can not have been mangled by line noise.
+	 *
+	 * @param text		Buffer containing the name as ASCII bytes
+	 * @param offset	Index of the first byte of the name
+	 * @param length	Number of bytes in the name
+	 * @return			Channel id
+	 */
+	public int define(byte[] text, int offset, int length) {
+		int id = lookup(text, offset, length);
+		if(id == -1)
+			id = lookup(text, offset, length); // seen for the first time, so seeing it again adds it
+		return id;
+	}
+
+	private static boolean equals(byte[] name, byte[] text, int offset, int length) {
+		if(name.length != length)
+			return false;
+		for(int i = 0; i < length; i++)
+			if(name[i] != text[offset + i])
+				return false;
+		return true;
+	}
+
+	/**
+	 * Slow path: a name has been seen for the first time.
+	 *
+	 * @param name		The name as ASCII bytes
+	 * @return			Channel id, or -1 if the name is not in the Database yet
+	 */
+	private int add(byte[] name) {
+		int id = db.getChannelId(prefix + new String(name, StandardCharsets.ISO_8859_1));
+
+		if(id == -1) {
+			if(pendingCount == MAX_PENDING)
+				forgetPending(); // a lot of noise, start over
+			pendingCount++;
+			insert(name, PENDING);
+			return -1;
+		}
+
+		insert(name, id);
+		return id;
+	}
+
+	/**
+	 * Remove all names that have only been seen once.
+	 */
+	private void forgetPending() {
+		int[] oldIds = ids;
+		byte[][] oldNames = names;
+		resize(ids.length);
+		for(int i = 0; i < oldIds.length; i++)
+			if(oldIds[i] >= 0)
+				insert(oldNames[i], oldIds[i]);
+		pendingCount = 0;
+	}
+
+	private void insert(byte[] name, int id) {
+		if(2 * (size + 1) > ids.length) {
+			// keep the table at most half full
+			int[] oldIds = ids;
+			byte[][] oldNames = names;
+			resize(ids.length * 2);
+			for(int i = 0; i < oldIds.length; i++)
+				if(oldIds[i] != EMPTY)
+					insert(oldNames[i], oldIds[i]);
+		}
+
+		int mask = ids.length - 1;
+		int slot = hash(name, 0, name.length) & mask;
+		while(ids[slot] != EMPTY)
+			slot = (slot + 1) & mask;
+
+		ids[slot] = id;
+		names[slot] = name;
+		size++;
+	}
+
+	private void resize(int length) {
+		ids = new int[length];
+		names = new byte[length][];
+		Arrays.fill(ids, EMPTY);
+		size = 0;
+	}
+
+	private static int hash(byte[] text, int offset, int length) {
+		int hash = 0;
+		for(int i = offset; i < offset + length; i++)
+			hash = 31 * hash + text[i];
+
+		// spread the bits so similar names don't cluster
+		hash *= 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+
+}
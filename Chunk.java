@@ -0,0 +1,200 @@
+package com.farrellf.TelemetryGUI;
+
+import java.util.Arrays;
+
+/**
+ * An immutable, compressed block of the history of one telemetry item.
+ *
+ * When the oldest values of a Channel's ring buffer are about to be overwritten, they are sealed into a Chunk instead of being lost.
+ * Values and timestamps are stored with delta-of-delta encoding: the first value, the first difference, and then the change in the difference for each value.
+ * Sensor values change slowly and samples arrive at a steady rate, so most of these numbers are close to zero.
+ * Each number is zigzag encoded (0, -1, 1, -2, 2, ... become 0, 1, 2, 3, 4, ...) and written as a varint, so small numbers take one byte.
+ *
+ * Chunks are decoded by a ChunkCache when old values are read.
+ * The timestamp of every MARK_INTERVAL'th value is also kept undecoded, so a point in time can be found roughly without decoding the chunk.
+ *
+ * @author Farrell Farahbod
+ * @version 1.0
+ */
+public class Chunk {
+
+	static final int MARK_INTERVAL = 256; // values between marked timestamps
+
+	final long firstIndex;     // index of the first value
+	final int size;            // number of values
+	final long firstTimestamp;
+	final long lastTimestamp;
+	final long[] marks;        // timestamps of values 0, MARK_INTERVAL, 2 * MARK_INTERVAL, etc., and of the last value
+	final byte[] data;         // encoded values, followed by encoded timestamps
+
+	private Chunk(long firstIndex, int size, long[] marks, byte[] data) {
+		this.firstIndex = firstIndex;
+		this.size = size;
+		this.firstTimestamp = marks[0];
+		this.lastTimestamp = marks[marks.length - 1];
+		this.marks = marks;
+		this.data = data;
+	}
+
+	/**
+	 * @param size		Number of values in a chunk
+	 * @return			Size of a buffer large enough for encoding a chunk
+	 */
+	public static int getMaxEncodedSize(int size) {
+		return size * 20; // the largest long delta-of-delta takes 10 bytes, for both the value and the timestamp
+	}
+
+	/**
+	 * Encode a range of values and timestamps.
+	 *
+	 * @param firstIndex	Index of the first value
+	 * @param values		Array containing the values
+	 * @param timestamps	Array containing the timestamps
+	 * @param offset		Position of the first value in the arrays
+	 * @param size			Number of values
+	 * @param buffer		Buffer to encode into, at least getMaxEncodedSize(size) bytes. Only the encoded bytes are kept.
+	 * @return				The chunk
+	 */
+	public static Chunk encode(long firstIndex, int[] values, long[] timestamps, int offset, int size, byte[] buffer) {
+		int position = 0;
+
+		long previous = 0;
+		long delta = 0;
+		for(int i = offset; i < offset + size; i++) {
+			long newDelta = values[i] - previous;
+			position = putVarLong(buffer, position, newDelta - delta);
+			delta = newDelta;
+			previous = values[i];
+		}
+
+		previous = 0;
+		delta = 0;
+		for(int i = offset; i < offset + size; i++) {
+			long newDelta = timestamps[i] - previous;
+			position = putVarLong(buffer, position, newDelta - delta);
+			delta = newDelta;
+			previous = timestamps[i];
+		}
+
+		long[] marks = new long[(size - 1 + MARK_INTERVAL - 1) / MARK_INTERVAL + 1];
+		for(int k = 0; k < marks.length; k++)
+			marks[k] = timestamps[offset + getMarkPosition(k, size)];
+
+		return new Chunk(firstIndex, size, marks, Arrays.copyOf(buffer, position));
+	}
+
+	/**
+	 * @param mark		Index in marks
+	 * @param size		Number of values in the chunk
+	 * @return			Position in the chunk of the value with that marked timestamp
+	 */
+	private static int getMarkPosition(int mark, int size) {
+		return Math.min(mark * MARK_INTERVAL, size - 1);
+	}
+
+	/**
+	 * Estimate where the first value received at or after a point in time is, from the marked timestamps, without decoding the chunk.
+	 * The position is interpolated between the two marks around the point in time.
+	 *
+	 * @param timestamp		System.nanoTime() value
+	 * @param tolerance		Nanoseconds by which the value found may be early or late
+	 * @return				Position of the value in the chunk, the chunk's size if all values are older,
+	 *						or -1 if the marks around it are further apart than the tolerance, so the chunk must be decoded
+	 */
+	public int estimatePosition(long timestamp, long tolerance) {
+		// binary search for the first mark at or after the timestamp
+		int low = 0;
+		int high = marks.length;
+		while(low < high) {
+			int middle = (low + high) >>> 1;
+			if(marks[middle] < timestamp)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		if(low == 0)
+			return 0;
+		if(low == marks.length)
+			return size;
+
+		long span = marks[low] - marks[low - 1];
+		if(span > tolerance)
+			return -1;
+		int from = getMarkPosition(low - 1, size);
+		int to = getMarkPosition(low, size);
+		return from + (int) Math.ceil((double) (timestamp - marks[low - 1]) / span * (to - from));
+	}
+
+	/**
+	 * Decode the values and timestamps.
+	 *
+	 * @param values		Destination for the values, at least size long
+	 * @param timestamps	Destination for the timestamps, at least size long
+	 */
+	public void decode(int[] values, long[] timestamps) {
+		int[] position = {0};
+
+		long previous = 0;
+		long delta = 0;
+		for(int i = 0; i < size; i++) {
+			delta += getVarLong(data, position);
+			previous += delta;
+			values[i] = (int) previous;
+		}
+
+		previous = 0;
+		delta = 0;
+		for(int i = 0; i < size; i++) {
+			delta += getVarLong(data, position);
+			previous += delta;
+			timestamps[i] = previous;
+		}
+	}
+
+	/**
+	 * @return		Index after the last value
+	 */
+	public long getEndIndex() {
+		return firstIndex + size;
+	}
+
+	/**
+	 * Write a zigzag encoded varint.
+	 *
+	 * @param buffer	Destination
+	 * @param position	Position to write at
+	 * @param n			Number to write
+	 * @return			Position after the number
+	 */
+	private static int putVarLong(byte[] buffer, int position, long n) {
+		long zigzag = (n << 1) ^ (n >> 63);
+		while((zigzag & ~0x7FL) != 0) {
+			buffer[position++] = (byte) ((zigzag & 0x7F) | 0x80);
+			zigzag >>>= 7;
+		}
+		buffer[position++] = (byte) zigzag;
+		return position;
+	}
+
+	/**
+	 * Read a zigzag encoded varint.
+	 *
+	 * @param buffer	Source
+	 * @param position	Position to read at, advanced past the number
+	 * @return			The number
+	 */
+	private static long getVarLong(byte[] buffer, int[] position) {
+		int p = position[0];
+		long zigzag = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buffer[p++];
+			zigzag |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while(b < 0);
+		position[0] = p;
+		return (zigzag >>> 1) ^ -(zigzag & 1);
+	}
+
+}
@@ -0,0 +1,116 @@
+package com.farrellf.TelemetryGUI;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A least-recently-used cache of decoded Chunks.
+ *
+ * Drawing or panning over old history reads the same chunks repeatedly, so the most recently used chunks are kept decoded.
+ * When the cache is full, the arrays of the least recently used chunk are reused for the next chunk, so a steady stream of reads does not allocate.
+ *
+ * The cache is shared by all channels of a Database, and may be used by any number of threads.
+ *
+ * @author Farrell Farahbod
+ * @version 1.0
+ */
+public class ChunkCache {
+
+	private final int capacity;
+	private final LinkedHashMap<Chunk, Decoded> chunks;
+
+	private static class Decoded {
+		int[] values;
+		long[] timestamps;
+	}
+
+	/**
+	 * @param capacity	Number of decoded chunks to keep
+	 */
+	public ChunkCache(int capacity) {
+		this.capacity = capacity;
+		this.chunks = new LinkedHashMap<Chunk, Decoded>(capacity * 2, 0.75f, true); // access order
+	}
+
+	/**
+	 * Copy part of a chunk into arrays, decoding it if necessary.
+	 *
+	 * @param chunk				The chunk
+	 * @param offset			Position of the first value in the chunk
+	 * @param valuesDest		Destination for the values, or null
+	 * @param timestampsDest	Destination for the timestamps, or null
+	 * @param position			Position of the first value in the destination arrays
+	 * @param length			Number of values
+	 */
+	public synchronized void copy(Chunk chunk, int offset, int[] valuesDest, long[] timestampsDest, int position, int length) {
+		Decoded decoded = get(chunk);
+		if(valuesDest != null)
+			System.arraycopy(decoded.values, offset, valuesDest, position, length);
+		if(timestampsDest != null)
+			System.arraycopy(decoded.timestamps, offset, timestampsDest, position, length);
+	}
+
+	/**
+	 * Get one timestamp from a chunk, decoding it if necessary.
+	 *
+	 * @param chunk		The chunk
+	 * @param offset	Position of the value in the chunk
+	 * @return			System.nanoTime() when the value was received
+	 */
+	public synchronized long getTimestamp(Chunk chunk, int offset) {
+		return get(chunk).timestamps[offset];
+	}
+
+	/**
+	 * Find the first value of a chunk received at or after a point in time.
+	 *
+	 * @param chunk			The chunk
+	 * @param timestamp		System.nanoTime() value
+	 * @return				Position of the value in the chunk, or the chunk's size if all values are older
+	 */
+	public synchronized int findTimestamp(Chunk chunk, long timestamp) {
+		long[] timestamps = get(chunk).timestamps;
+
+		// binary search, timestamps never decrease
+		int low = 0;
+		int high = chunk.size;
+		while(low < high) {
+			int middle = (low + high) >>> 1;
+			if(timestamps[middle] < timestamp)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+	/**
+	 * Get a decoded chunk, decoding it into the least recently used entry if it is not cached.
+	 * Must be called while synchronized on this cache.
+	 *
+	 * @param chunk		The chunk
+	 * @return			The decoded values and timestamps
+	 */
+	private Decoded get(Chunk chunk) {
+		Decoded decoded = chunks.get(chunk);
+		if(decoded != null)
+			return decoded;
+
+		if(chunks.size() >= capacity) {
+			Iterator<Map.Entry<Chunk, Decoded>> eldest = chunks.entrySet().iterator();
+			decoded = eldest.next().getValue();
+			eldest.remove();
+		}
+		if(decoded == null || decoded.values.length < chunk.size) {
+			decoded = new Decoded();
+			decoded.values = new int[chunk.size];
+			decoded.timestamps = new long[chunk.size];
+		}
+
+		chunk.decode(decoded.values, decoded.timestamps);
+		chunks.put(chunk, decoded);
+		return decoded;
+	}
+
+}
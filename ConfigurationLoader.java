@@ -59,8 +59,10 @@ public class ConfigurationLoader {
 					String df = chunks[6].trim();
 					String suffix = chunks[7].trim();
 					int defaultValue = Integer.parseInt(chunks[8].trim());
-					gui.addGroupItem(groupName, itemName, dbName, min, max, factor, df, suffix, defaultValue);
-					System.out.println("Adding Item: " + groupName + ", " + itemName + ", " + dbName + ", " + min + ", " + max + ", " + factor + ", " + df + ", " + suffix + ", " + defaultValue);
+					int capacity = (chunks.length > 9) ? Integer.parseInt(chunks[9].trim()) : Database.DEFAULT_CAPACITY; // optional
+					int channel = gui.db.addChannel(dbName, capacity);
+					gui.addGroupItem(groupName, itemName, channel, min, max, factor, df, suffix, defaultValue);
+					System.out.println("Adding Item: " + groupName + ", " + itemName + ", " + dbName + ", " + min + ", " + max + ", " + factor + ", " + df + ", " + suffix + ", " + defaultValue + ", " + capacity);
 				} else {
 					// invalid line
 				}			
@@ -1,89 +1,645 @@
 package com.farrellf.TelemetryGUI;
 
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.ArrayList;
+import java.util.concurrent.locks.StampedLock;
 
 /**
  * A simple place for data storage and retrieval.
- * A Map of ArrayLists is currently used as the storage medium.
- * 
+ * Each item is stored in a Channel, which keeps the recent history in a primitive ring buffer.
+ * Older history is sealed into compressed Chunks, which are decoded transparently (through a ChunkCache) when old values are read.
+ *
+ * Each channel is identified by a dense integer id, assigned when the channel is added.
+ * Ids should be resolved once (when the configuration file is loaded, or when a parser first sees a name)
+ * and then used for all further access, so the hot paths never hash or compare Strings.
+ * The String-based methods are kept for convenience.
+ *
+ * The database is designed for a few ingest threads writing (one per serial port) and any number of GUI threads reading:
+ *
+ * The set of channels is copy-on-write. Adding a channel is rare, so it builds a new array and Map and publishes them through volatile fields.
+ * Readers never lock, they just read whichever array was most recently published.
+ *
+ * Values are published with a StampedLock used as a sequence lock. The writer holds the write lock only while appending.
+ * Each namespace has its own lock, so ports writing to different namespaces never contend (see NAMESPACE_SEPARATOR.)
+ * Values are normally appended one Frame at a time, so the lock is taken once per frame rather than once per value,
+ * and readers see either all or none of a frame. (A frame that spans several namespaces takes all of their locks, in order.)
+ * Readers use optimistic reads: they read without locking, then validate the stamp and retry if a write occurred.
+ * Long history reads are not retried, instead the values overwritten during the copy are detected afterwards and discarded.
+ * Readers therefore never block the writer, and the writer never waits for readers.
+ * Chunks are sealed before their values are overwritten, so discarded values are read again from the chunks instead.
+ *
+ * Each Database also holds the IngestMetrics of the telemetry written to it, and a LatencyTracer.
+ *
  * @author Farrell Farahbod
  * @version 1.0
  */
 public class Database {
-	
-	// names of items being tracked by the database
-	private List<String> names;
-	private Map<String, List<Integer>> db;
-	
+
+	// number of values kept uncompressed for items that do not specify a capacity: 4 chunks, 192kB per item.
+	// older values are read from the chunks and the Pyramid, so a larger hot window only costs memory.
+	public static final int DEFAULT_CAPACITY = 1 << 14;
+
+	// number of decoded chunks kept for reading old history
+	public static final int CACHED_CHUNKS = 64;
+
+	// separates a namespace from an item name, for example "ttyUSB1:AngleX". Names without one are in the default namespace.
+	public static final char NAMESPACE_SEPARATOR = ':';
+
+	private volatile Channel[] channels;
+	private volatile Map<String, Channel> names;
+	private volatile FrameListener[] listeners;
+	private volatile StampedLock[] locks;      // one per namespace, indexed by Channel.namespace
+	private final Map<String, Integer> namespaces;
+	private final Frame singleValue; // used by addValue()
+	private final ChunkCache cache;
+	private final int defaultCapacity;
+	private final IngestMetrics ingestMetrics;
+	private final LatencyTracer tracer;
+
 	public Database() {
-		names = new ArrayList<String>();
-		db = new HashMap<String, List<Integer>>();
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param defaultCapacity	Number of values kept uncompressed for items that do not specify a capacity.
+	 *							Older values are still kept in sealed chunks.
+	 */
+	public Database(int defaultCapacity) {
+		this.defaultCapacity = defaultCapacity;
+		channels = new Channel[0];
+		names = new HashMap<String, Channel>();
+		listeners = new FrameListener[0];
+		locks = new StampedLock[] {new StampedLock()};
+		namespaces = new HashMap<String, Integer>();
+		namespaces.put("", 0);
+		singleValue = new Frame();
+		cache = new ChunkCache(CACHED_CHUNKS);
+		ingestMetrics = new IngestMetrics(this);
+		tracer = new LatencyTracer(this);
+	}
+
+	/**
+	 * @return		Counters and histograms for the telemetry written to this Database
+	 */
+	public IngestMetrics getIngestMetrics() {
+		return ingestMetrics;
+	}
+
+	/**
+	 * @return		Tracing of the time values take to reach the screen
+	 */
+	public LatencyTracer getLatencyTracer() {
+		return tracer;
+	}
+
+	/** Register a listener to be notified after each frame is committed.
+	 *
+	 * @param listener	The listener
+	 */
+	public synchronized void addFrameListener(FrameListener listener) {
+		FrameListener[] newListeners = Arrays.copyOf(listeners, listeners.length + 1);
+		newListeners[listeners.length] = listener;
+		listeners = newListeners;
+	}
+
+	/** Stop notifying a listener.
+	 *
+	 * @param listener	The listener
+	 */
+	public synchronized void removeFrameListener(FrameListener listener) {
+		List<FrameListener> newListeners = new ArrayList<FrameListener>(Arrays.asList(listeners));
+		newListeners.remove(listener);
+		listeners = newListeners.toArray(new FrameListener[0]);
+	}
+
+	/** Get the id of an item, adding the item if it does not exist yet.
+	 *
+	 * @param key		Name of tracked item
+	 * @return			Channel id
+	 */
+	public int addChannel(String key) {
+		Channel channel = names.get(key);
+		if(channel != null)
+			return channel.id;
+
+		synchronized(this) {
+			// check again, another thread may have added it
+			channel = names.get(key);
+			if(channel == null) {
+				int namespace = getNamespace(key);
+				channel = new Channel(channels.length, key, defaultCapacity, namespace, locks[namespace]);
+				publish(channel);
+			}
+			return channel.id;
+		}
+	}
+
+	/** Get the id of an item, adding the item if it does not exist yet, and set the number of values kept uncompressed for it.
+	 * Existing values are kept, up to the new capacity. Sealed history is not carried over.
+	 * This should be done before values for the item start arriving, since values added during the resize are lost.
+	 *
+	 * @param key		Name of tracked item
+	 * @param capacity	Number of values to keep uncompressed
+	 * @return			Channel id
+	 */
+	public synchronized int addChannel(String key, int capacity) {
+		int id = addChannel(key);
+		if(channels[id].getCapacity() == Channel.roundCapacity(capacity))
+			return id;
+
+		// carry over as much of the existing history as will fit
+		Channel newChannel = new Channel(id, key, capacity, channels[id].namespace, channels[id].lock);
+		long count = getListSize(id);
+		long first = Math.max(getOldestIndex(id), count - newChannel.getCapacity());
+		int length = (int) (count - first);
+		int[] history = new int[length];
+		long[] timestamps = new long[length];
+		int copied = Math.min(getValues(id, first, history, length), getTimestamps(id, first, timestamps, length));
+		newChannel.count = count - copied;
+		for(int i = length - copied; i < length; i++)
+			newChannel.add(history[i], timestamps[i]);
+		Statistics statistics = new Statistics();
+		getStatistics(id, statistics);
+		newChannel.statistics.copyAllTime(statistics); // the all-time statistics also cover values that did not fit
+
+		publish(newChannel);
+		return id;
+	}
+
+	/** Get the index of the namespace of an item, adding the namespace and its lock if they do not exist yet.
+	 * Must be called while synchronized on this Database.
+	 *
+	 * @param key		Name of tracked item
+	 * @return			Index of the namespace
+	 */
+	private int getNamespace(String key) {
+		int separator = key.indexOf(NAMESPACE_SEPARATOR);
+		String namespace = (separator == -1) ? "" : key.substring(0, separator);
+
+		Integer index = namespaces.get(namespace);
+		if(index == null) {
+			index = locks.length;
+			namespaces.put(namespace, index);
+			StampedLock[] newLocks = Arrays.copyOf(locks, locks.length + 1);
+			newLocks[index] = new StampedLock();
+			locks = newLocks;
+		}
+		return index;
+	}
+
+	/** Publish a new or replacement channel by swapping in modified copies of the array and Map.
+	 * Must be called while synchronized on this Database.
+	 *
+	 * @param channel	The channel
+	 */
+	private void publish(Channel channel) {
+		Channel[] newChannels = channels;
+		if(channel.id == newChannels.length)
+			newChannels = Arrays.copyOf(newChannels, newChannels.length + 1);
+		else
+			newChannels = newChannels.clone();
+		newChannels[channel.id] = channel;
+
+		Map<String, Channel> newNames = new HashMap<String, Channel>(names);
+		newNames.put(channel.name, channel);
+
+		channels = newChannels;
+		names = newNames;
+	}
+
+	/** Get the id of an existing item
+	 *
+	 * @param key		Name of tracked item
+	 * @return			Channel id, or -1 if the item does not exist
+	 */
+	public int getChannelId(String key) {
+		Channel channel = names.get(key);
+		return (channel == null) ? -1 : channel.id;
+	}
+
+	/** Get the name of an item
+	 *
+	 * @param id		Channel id
+	 * @return			Name of tracked item
+	 */
+	public String getChannelName(int id) {
+		return channels[id].name;
+	}
+
+	/**
+	 * @return			Number of channels, ids range from 0 to this number - 1
+	 */
+	public int getChannelCount() {
+		return channels.length;
+	}
+
+	/** Insert a new value for the specified item
+	 *
+	 * @param id		Channel id
+	 * @param value		New value
+	 */
+	public void addValue(int id, int value) {
+		synchronized(singleValue) {
+			singleValue.clear();
+			singleValue.add(id, value, System.nanoTime());
+			commitFrame(singleValue);
+		}
 	}
-	
+
+	/** Insert a batch of new values.
+	 * Readers will see either none or all of the values. Frame listeners are notified afterwards.
+	 * Several threads may commit frames at once, ideally each to its own namespace.
+	 *
+	 * @param frame		The values
+	 */
+	public void commitFrame(Frame frame) {
+		Channel[] channels = this.channels;
+		int[] frameChannels = frame.channels;
+		int size = frame.size;
+		if(size == 0)
+			return;
+
+		boolean tracing = tracer.isEnabled();
+		long now = tracing ? System.nanoTime() : 0;
+
+		// normally all values are in one namespace
+		int namespace = channels[frameChannels[0]].namespace;
+		boolean oneNamespace = true;
+		for(int i = 1; i < size; i++)
+			if(channels[frameChannels[i]].namespace != namespace)
+				oneNamespace = false;
+
+		if(oneNamespace) {
+			StampedLock lock = channels[frameChannels[0]].lock;
+			long stamp = lock.writeLock();
+			append(channels, frame, tracing, now);
+			lock.unlockWrite(stamp);
+		} else {
+			// lock every namespace, always in the same order so two threads can not deadlock
+			StampedLock[] locks = this.locks;
+			long[] stamps = new long[locks.length];
+			for(int i = 0; i < locks.length; i++)
+				stamps[i] = locks[i].writeLock();
+			append(channels, frame, tracing, now);
+			for(int i = locks.length - 1; i >= 0; i--)
+				locks[i].unlockWrite(stamps[i]);
+		}
+
+		if(tracing)
+			tracer.recordCommit(frame.timestamps[0], now);
+
+		FrameListener[] listeners = this.listeners;
+		for(int i = 0; i < listeners.length; i++)
+			listeners[i].frameCommitted(frame);
+	}
+
+	/** Append the values of a frame to their channels. Must be called while holding the write locks of their namespaces.
+	 *
+	 * @param channels	The channels
+	 * @param frame		The values
+	 * @param tracing	True if the LatencyTracer is enabled
+	 * @param now		System.nanoTime() when the frame was committed, if tracing
+	 */
+	private static void append(Channel[] channels, Frame frame, boolean tracing, long now) {
+		int[] frameChannels = frame.channels;
+		int[] frameValues = frame.values;
+		long[] frameTimestamps = frame.timestamps;
+		int size = frame.size;
+
+		for(int i = 0; i < size; i++)
+			channels[frameChannels[i]].add(frameValues[i], frameTimestamps[i]);
+		if(tracing)
+			for(int i = 0; i < size; i++)
+				channels[frameChannels[i]].commitTime = now;
+	}
+
 	/** Insert a new value for the specified item
-	 * 
+	 *
 	 * @param key		Name of tracked item
 	 * @param value		New value
 	 */
 	public void addValue(String key, int value) {
-		if(!names.contains(key)) {
-			// add new list to the map if it doesn't already exist
-			db.put(key, Collections.synchronizedList(new ArrayList<Integer>()));
-			names.add(key);
+		addValue(addChannel(key), value);
+	}
+
+	/** Get the most recent value from the database
+	 *
+	 * @param id		Channel id
+	 * @return			Most recent value
+	 */
+	public int getLastValue(int id) {
+		Channel channel = channels[id];
+		StampedLock lock = channel.lock;
+
+		while(true) {
+			long stamp = lock.tryOptimisticRead();
+			int value = channel.getLast(); // -1 if no values exist in the database
+			if(lock.validate(stamp))
+				return value;
 		}
-		
-		db.get(key).add(value);
 	}
-	
+
+	/** Get the most recent value of every item.
+	 * All of the values of a namespace are from the same frame.
+	 *
+	 * @param dest		Destination array, indexed by channel id. Items without values are set to -1.
+	 * @return			Number of channels copied, which is the smaller of dest.length and getChannelCount()
+	 */
+	public int getLastValues(int[] dest) {
+		Channel[] channels = this.channels;
+		StampedLock[] locks = this.locks;
+		int count = Math.min(dest.length, channels.length);
+
+		// one namespace at a time, so a write to one namespace does not make the others retry
+		for(int n = 0; n < locks.length; n++) {
+			StampedLock lock = locks[n];
+			while(true) {
+				long stamp = lock.tryOptimisticRead();
+				for(int i = 0; i < count; i++)
+					if(channels[i].namespace == n)
+						dest[i] = channels[i].getLast();
+				if(lock.validate(stamp))
+					break;
+			}
+		}
+		return count;
+	}
+
 	/** Get the most recent value from the database
-	 * 
+	 *
 	 * @param key		Name of tracked item
 	 * @return			Most recent value
 	 */
 	public int getLastValue(String key) {
-		if(!names.contains(key)) {
+		int id = getChannelId(key);
+		if(id == -1) {
 			//System.err.println("Item \"" + key + "\" does not yet exist in the database.");
 			return -1;
 		}
-		
-		List<Integer> al = db.get(key);
-		int lastIndex = al.size() - 1;
-		if(lastIndex == -1) {
-			return -1; // no values exist in the database
-		} else {
-			return al.get(lastIndex);
-		}
+
+		return getLastValue(id);
+	}
+
+	/** Get the sample count for an item
+	 *
+	 * @param id		Channel id
+	 * @return			Count of values received. Only the most recent ones are retained, see getOldestIndex().
+	 */
+	public long getListSize(int id) {
+		return getCount(channels[id]);
 	}
-	
+
 	/** Get the sample count for an item
-	 * 
+	 *
 	 * @param key		Name of tracked item
-	 * @return			Count of values stored in the db
+	 * @return			Count of values received. Only the most recent ones are retained, see getOldestIndex().
 	 */
-	public int getListSize(String key) {
-		if(!names.contains(key)) {
+	public long getListSize(String key) {
+		int id = getChannelId(key);
+		if(id == -1) {
 			//System.err.println("Item \"" + key + "\" does not yet exist in the database.");
 			return -1;
-		} else {
-			return db.get(key).size();
 		}
+
+		return getListSize(id);
 	}
-	
-	/** Get a list containing the history of values for an item
-	 * 
-	 * @param key		Name of tracked item
-	 * @return			List<Integer> of values
+
+	/** Get the index of the oldest value still retained for an item, either uncompressed or sealed
+	 *
+	 * @param id		Channel id
+	 * @return			Index of the oldest retained value
 	 */
-	public List<Integer> getList(String key) {
-		if(!names.contains(key)) {
-			//System.err.println("Item \"" + key + "\" does not yet exist in the database.");
-			return new ArrayList<Integer>();
-		} else {
-			return db.get(key);
+	public long getOldestIndex(int id) {
+		Channel channel = channels[id];
+		long oldest = Math.max(0, getCount(channel) - channel.getCapacity());
+		long sealed = channel.getOldestSealedIndex();
+		return (sealed == -1) ? oldest : Math.min(oldest, sealed);
+	}
+
+	/** Get the memory used by the sealed history of all items
+	 *
+	 * @return			Number of bytes of compressed chunks
+	 */
+	public long getSealedBytes() {
+		Channel[] channels = this.channels;
+		long bytes = 0;
+		for(Channel channel : channels)
+			bytes += channel.getSealedBytes();
+		return bytes;
+	}
+
+	/** Copy part of the history of values for an item into an array.
+	 * The range must not extend past the newest value (see getListSize().)
+	 * Values that are no longer retained are skipped, so the copied values always end at dest[length - 1].
+	 *
+	 * @param id			Channel id
+	 * @param firstIndex	Index of the first value to copy
+	 * @param dest			Destination array
+	 * @param length		Number of values to copy
+	 * @return				Number of values copied, they occupy dest[length - returned ... length - 1]
+	 */
+	public int getValues(int id, long firstIndex, int[] dest, int length) {
+		Channel channel = channels[id];
+		int copied = discardOverwritten(channel, firstIndex, length, channel.copy(firstIndex, dest, length));
+		if(copied < length)
+			copied += channel.copySealed(cache, firstIndex, dest, null, length - copied);
+		return copied;
+	}
+
+	/** Copy part of the history of timestamps for an item into an array.
+	 * The range must not extend past the newest value (see getListSize().)
+	 * Timestamps that are no longer retained are skipped, so the copied timestamps always end at dest[length - 1].
+	 *
+	 * @param id			Channel id
+	 * @param firstIndex	Index of the first timestamp to copy
+	 * @param dest			Destination array
+	 * @param length		Number of timestamps to copy
+	 * @return				Number of timestamps copied, they occupy dest[length - returned ... length - 1]
+	 */
+	public int getTimestamps(int id, long firstIndex, long[] dest, int length) {
+		Channel channel = channels[id];
+		int copied = discardOverwritten(channel, firstIndex, length, channel.copyTimestamps(firstIndex, dest, length));
+		if(copied < length)
+			copied += channel.copySealed(cache, firstIndex, null, dest, length - copied);
+		return copied;
+	}
+
+	/** Copy summaries of part of the history of an item into arrays. See Pyramid.
+	 * Summaries reach much further back than the values, at coarser resolutions.
+	 * The range must not extend past the bucket of the newest value.
+	 * Buckets that are no longer retained are skipped, so the copied buckets always end at index length - 1 of the arrays.
+	 *
+	 * @param id			Channel id
+	 * @param level			Pyramid level, from 1 to Pyramid.LEVELS. Each bucket summarizes Pyramid.getBucketSize(level) values.
+	 * @param firstBucket	Index of the first bucket to copy
+	 * @param min			Destination for the minimum of each bucket
+	 * @param max			Destination for the maximum of each bucket
+	 * @param mean			Destination for the mean of each bucket
+	 * @param length		Number of buckets to copy
+	 * @return				Number of buckets copied, they occupy [length - returned ... length - 1] of the arrays
+	 */
+	public int getSummaries(int id, int level, long firstBucket, int[] min, int[] max, int[] mean, int length) {
+		Channel channel = channels[id];
+		int copied = channel.pyramid.copy(level, getCount(channel), firstBucket, min, max, mean, length);
+
+		// discard buckets that were overwritten during the copy
+		long overwritten = channel.pyramid.getOldestBucket(level, getCount(channel)) - firstBucket;
+		if(overwritten > 0)
+			copied = (int) Math.min(copied, Math.max(0, length - overwritten));
+		return copied;
+	}
+
+	/** Get the running statistics of an item, all-time and over the most recent Statistics.WINDOW values.
+	 * Only the statistics are copied, the history is not read.
+	 *
+	 * @param id		Channel id
+	 * @param dest		Snapshot to fill, created with new Statistics()
+	 */
+	public void getStatistics(int id, Statistics dest) {
+		Channel channel = channels[id];
+		StampedLock lock = channel.lock;
+
+		while(true) {
+			long stamp = lock.tryOptimisticRead();
+			channel.statistics.copyTo(dest);
+			if(lock.validate(stamp))
+				return;
+		}
+	}
+
+	/** Get the index of the oldest value that is still summarized by a level of an item's Pyramid
+	 *
+	 * @param id		Channel id
+	 * @param level		Pyramid level, from 1 to Pyramid.LEVELS, or 0 for the values themselves
+	 * @return			Index of the oldest value covered by that level
+	 */
+	public long getOldestSummarizedIndex(int id, int level) {
+		if(level == 0)
+			return getOldestIndex(id);
+
+		Channel channel = channels[id];
+		long oldest = channel.pyramid.getOldestBucket(level, getCount(channel)) * Pyramid.getBucketSize(level);
+		return Math.min(getOldestIndex(id), Math.max(oldest, channel.pyramid.first));
+	}
+
+	/** Get the time when a value was received
+	 *
+	 * @param id		Channel id
+	 * @param index		Index of the value
+	 * @return			System.nanoTime() when the value was received, or -1 if the value is not retained
+	 */
+	public long getTimestamp(int id, long index) {
+		Channel channel = channels[id];
+		long timestamp = channel.timestamps[(int) (index & channel.mask)];
+		long count = getCount(channel);
+		if(index < 0 || index >= count)
+			return -1;
+		else if(index >= count - channel.getCapacity())
+			return timestamp;
+
+		// overwritten, read it from the sealed history
+		Chunk chunk = channel.getChunk(index);
+		return (chunk == null) ? -1 : cache.getTimestamp(chunk, (int) (index - chunk.firstIndex));
+	}
+
+	/** Get the time when the newest value of an item was committed. Only known while the LatencyTracer is enabled.
+	 *
+	 * @param id		Channel id
+	 * @param count		Number of values of the item, from getListSize()
+	 * @return			System.nanoTime() when the value at index count - 1 was committed, 0 if tracing was not enabled then, or -1 if more values have been committed since
+	 */
+	public long getCommitTime(int id, long count) {
+		Channel channel = channels[id];
+		StampedLock lock = channel.lock;
+
+		while(true) {
+			long stamp = lock.tryOptimisticRead();
+			long newest = channel.count;
+			long commitTime = channel.commitTime;
+			if(lock.validate(stamp))
+				return (newest == count) ? commitTime : -1;
+		}
+	}
+
+	/** Find the first value of an item received at or after a point in time
+	 *
+	 * @param id		Channel id
+	 * @param timestamp	System.nanoTime() value
+	 * @return			Index of the value, or getListSize() if all values are older. Values that are no longer retained are not searched.
+	 */
+	public long findIndex(int id, long timestamp) {
+		return findIndex(id, timestamp, 0);
+	}
+
+	/** Find roughly the first value of an item received at or after a point in time.
+	 * Sealed chunks that span less than the tolerance are not decoded, so finding many points in old history stays cheap.
+	 *
+	 * @param id		Channel id
+	 * @param timestamp	System.nanoTime() value
+	 * @param tolerance	Nanoseconds by which the value found may be early or late
+	 * @return			Index of the value, or getListSize() if all values are older. Values that are no longer retained are not searched.
+	 */
+	public long findIndex(int id, long timestamp, long tolerance) {
+		Channel channel = channels[id];
+		long oldest = Math.max(0, getCount(channel) - channel.getCapacity());
+		long index = Math.max(channel.findIndex(timestamp), oldest);
+		if(index > oldest)
+			return index;
+
+		// the oldest uncompressed value is at or after the timestamp, so search the sealed history
+		long sealed = channel.findSealedIndex(cache, timestamp, tolerance);
+		return (sealed == -1) ? index : Math.min(index, sealed);
+	}
+
+	/** Get the rate at which an item has recently been updated
+	 *
+	 * @param id		Channel id
+	 * @param samples	Number of recent values to average over
+	 * @return			Values per second, or 0 if not enough values exist
+	 */
+	public double getSampleRate(int id, int samples) {
+		long count = getListSize(id);
+		long first = Math.max(getOldestIndex(id), count - samples);
+		long firstTimestamp = getTimestamp(id, first);
+		long lastTimestamp = getTimestamp(id, count - 1);
+		if(count - first < 2 || firstTimestamp == -1 || lastTimestamp <= firstTimestamp)
+			return 0;
+		else
+			return (count - 1 - first) / ((lastTimestamp - firstTimestamp) / 1000000000.0);
+	}
+
+	/** Check a copied range of history against the writer's progress.
+	 * The writer may have lapped the start of the range while it was being copied, those entries are discarded.
+	 *
+	 * @param channel		The channel
+	 * @param firstIndex	Index of the first value that was copied
+	 * @param length		Number of values requested
+	 * @param copied		Number of values copied
+	 * @return			Number of values that are valid, they occupy dest[length - returned ... length - 1]
+	 */
+	private int discardOverwritten(Channel channel, long firstIndex, int length, int copied) {
+		long overwritten = getCount(channel) - channel.getCapacity() - firstIndex;
+		if(overwritten > 0)
+			copied = (int) Math.min(copied, Math.max(0, length - overwritten));
+
+		return copied;
+	}
+
+	/** Read the number of values ever added to a channel
+	 *
+	 * @param channel	The channel
+	 * @return			Count of values
+	 */
+	private long getCount(Channel channel) {
+		StampedLock lock = channel.lock;
+		while(true) {
+			long stamp = lock.tryOptimisticRead();
+			long count = channel.count;
+			if(lock.validate(stamp))
+				return count;
 		}
 	}
 
@@ -0,0 +1,86 @@
+package com.farrellf.TelemetryGUI;
+
+import java.util.Arrays;
+
+/**
+ * A batch of new values that is committed to the Database at once.
+ *
+ * The firmware prints a whole "screen" of items and then sends the "\x1B[H" (cursor home) escape sequence.
+ * A parser collects the values of one screen in a Frame, then commits the whole Frame, so readers never see a mix of two screens.
+ * The arrays are reused from frame to frame, so collecting values does not allocate.
+ *
+ * @author Farrell Farahbod
+ * @version 1.0
+ */
+public class Frame {
+
+	int[] channels;
+	int[] values;
+	long[] timestamps;
+	int size;
+
+	// used to check if a channel is already part of this frame: stamps[channel] == generation
+	private int[] stamps;
+	private int generation;
+
+	public Frame() {
+		channels = new int[64];
+		values = new int[64];
+		timestamps = new long[64];
+		size = 0;
+		stamps = new int[64];
+		generation = 1;
+	}
+
+	/**
+	 * Append a value to the frame.
+	 *
+	 * @param channel	Channel id
+	 * @param value		New value
+	 * @param timestamp	System.nanoTime() when the value was received
+	 */
+	public void add(int channel, int value, long timestamp) {
+		if(size == channels.length) {
+			channels = Arrays.copyOf(channels, size * 2);
+			values = Arrays.copyOf(values, size * 2);
+			timestamps = Arrays.copyOf(timestamps, size * 2);
+		}
+		if(channel >= stamps.length)
+			stamps = Arrays.copyOf(stamps, Math.max(channel + 1, stamps.length * 2));
+
+		channels[size] = channel;
+		values[size] = value;
+		timestamps[size] = timestamp;
+		stamps[channel] = generation;
+		size++;
+	}
+
+	/**
+	 * @param channel	Channel id
+	 * @return			True if the frame already contains a value for the channel
+	 */
+	public boolean contains(int channel) {
+		return channel < stamps.length && stamps[channel] == generation;
+	}
+
+	/**
+	 * @return			Number of values in the frame
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Empty the frame so it can be reused.
+	 */
+	public void clear() {
+		size = 0;
+		generation++;
+		if(generation == 0) {
+			// the counter wrapped around, old stamps could now match
+			Arrays.fill(stamps, 0);
+			generation = 1;
+		}
+	}
+
+}
@@ -0,0 +1,20 @@
+package com.farrellf.TelemetryGUI;
+
+/**
+ * Notified each time a Frame of new values is committed to the Database.
+ *
+ * Listeners are called on the ingest thread, right after the values become visible to readers.
+ * When several ports are open, several ingest threads may call a listener at the same time.
+ * They must return quickly and must not keep a reference to the Frame, since it is reused.
+ *
+ * @author Farrell Farahbod
+ * @version 1.0
+ */
+public interface FrameListener {
+
+	/**
+	 * @param frame		The values that were committed
+	 */
+	public void frameCommitted(Frame frame);
+
+}
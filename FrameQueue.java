@@ -0,0 +1,136 @@
+package com.farrellf.TelemetryGUI;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded queue for handing Frames from the ingest thread to one other thread.
+ *
+ * There is exactly one producer and one consumer, so no locks are needed:
+ * each side only writes its own position, and publishes it with AtomicLong.lazySet(), which is a cheap ordered store.
+ * The values are copied into preallocated ring buffers, so neither side allocates.
+ * If the queue is full the producer never waits, the frame is dropped and counted instead.
+ *
+ * @author Farrell Farahbod
+ * @version 1.0
+ */
+public class FrameQueue {
+
+	// samples of all queued frames
+	private final int[] channels;
+	private final int[] values;
+	private final long[] timestamps;
+	private final int sampleMask;
+
+	// number of samples in each queued frame
+	private final int[] frameSizes;
+	private final int frameMask;
+
+	private final AtomicLong framesWritten; // written by the producer
+	private final AtomicLong framesRead;    // written by the consumer
+	private final AtomicLong samplesRead;   // written by the consumer
+	private long samplesWritten;            // only used by the producer
+	private volatile long droppedFrames;    // only written by the producer
+
+	/**
+	 * Create an empty queue.
+	 *
+	 * @param sampleCapacity	Number of samples that can be queued. Rounded up to a power of two.
+	 * @param frameCapacity		Number of frames that can be queued. Rounded up to a power of two.
+	 */
+	public FrameQueue(int sampleCapacity, int frameCapacity) {
+		sampleCapacity = Channel.roundCapacity(sampleCapacity);
+		frameCapacity = Channel.roundCapacity(frameCapacity);
+
+		channels = new int[sampleCapacity];
+		values = new int[sampleCapacity];
+		timestamps = new long[sampleCapacity];
+		sampleMask = sampleCapacity - 1;
+		frameSizes = new int[frameCapacity];
+		frameMask = frameCapacity - 1;
+
+		framesWritten = new AtomicLong(0);
+		framesRead = new AtomicLong(0);
+		samplesRead = new AtomicLong(0);
+		samplesWritten = 0;
+		droppedFrames = 0;
+	}
+
+	/**
+	 * Copy a frame into the queue. Only call this from the producer thread.
+	 *
+	 * @param frame		The frame
+	 * @return			True if queued, false if the queue was full and the frame was dropped
+	 */
+	public boolean offer(Frame frame) {
+		int size = frame.size;
+		long frames = framesWritten.get();
+
+		if(frames - framesRead.get() > frameMask || samplesWritten + size - samplesRead.get() > channels.length) {
+			droppedFrames++;
+			return false;
+		}
+
+		for(int i = 0; i < size; i++) {
+			int slot = (int) ((samplesWritten + i) & sampleMask);
+			channels[slot] = frame.channels[i];
+			values[slot] = frame.values[i];
+			timestamps[slot] = frame.timestamps[i];
+		}
+		frameSizes[(int) (frames & frameMask)] = size;
+		samplesWritten += size;
+
+		framesWritten.lazySet(frames + 1);
+		return true;
+	}
+
+	/**
+	 * Remove the oldest frame from the queue. Only call this from the consumer thread.
+	 *
+	 * @param dest		Frame to copy the values into. It is cleared first.
+	 * @return			True if a frame was removed, false if the queue was empty
+	 */
+	public boolean poll(Frame dest) {
+		long frames = framesRead.get();
+		if(frames == framesWritten.get())
+			return false;
+
+		int size = frameSizes[(int) (frames & frameMask)];
+		long samples = samplesRead.get();
+
+		dest.clear();
+		for(int i = 0; i < size; i++) {
+			int slot = (int) ((samples + i) & sampleMask);
+			dest.add(channels[slot], values[slot], timestamps[slot]);
+		}
+
+		samplesRead.lazySet(samples + size);
+		framesRead.lazySet(frames + 1);
+		return true;
+	}
+
+	/**
+	 * Only call this from the consumer thread.
+	 *
+	 * @return			Timestamp of the first value of the oldest frame, or Long.MAX_VALUE if the queue is empty
+	 */
+	public long peekTimestamp() {
+		if(framesRead.get() == framesWritten.get())
+			return Long.MAX_VALUE;
+		return timestamps[(int) (samplesRead.get() & sampleMask)];
+	}
+
+	/**
+	 * @return			True if no frames are queued
+	 */
+	public boolean isEmpty() {
+		return framesRead.get() == framesWritten.get();
+	}
+
+	/**
+	 * @return			Number of frames dropped because the queue was full
+	 */
+	public long getDroppedFrames() {
+		return droppedFrames;
+	}
+
+}
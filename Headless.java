@@ -0,0 +1,263 @@
+package com.farrellf.TelemetryGUI;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Receives telemetry without a GUI, for soak tests on a machine without a display.
+ *
+ * Started by Main with the --headless option. It connects the serial ports, optionally records to a file,
+ * and prints a summary of the throughput every few seconds. None of the Swing or AWT classes are loaded,
+ * and the configuration file is not read: every item is added to the Database when it is first seen.
+ *
+ *   java -jar TelemetryGUI.jar --headless --port /dev/ttyUSB0 [--port ...] [--baud 921600] [--overflow drop-oldest|drop-newest|block]
+ *                              [--record file.rec] [--serve 5750] [--interval 10] [--duration 3600] [--capacity 8192] [--statistics]
+ *
+ * --serve streams the telemetry to clients on a TCP port, see TelemetryServer. A port can also be "tcp:host:port", to receive from such a server.
+ * --interval is the number of seconds between summaries, and --duration the number of seconds to run (0, the default, runs until killed).
+ * --capacity is the number of values of each item kept uncompressed. Nothing is drawn, so the default is far less than the GUI's,
+ * which keeps the memory used a fraction of the GUI's. Older values are still kept, in sealed chunks.
+ * --statistics adds a line with the Statistics of each item to each summary.
+ * When stopped, the recording is finished and a final summary is printed.
+ *
+ * @author Farrell Farahbod
+ * @version 1.0
+ */
+public class Headless {
+
+	static final String USAGE = "Usage: --headless --port <port> [--port <port> ...] [--baud <rate>] [--overflow drop-oldest|drop-newest|block]"
+	                          + " [--record <file>] [--serve <tcp port>] [--interval <seconds>] [--duration <seconds>] [--capacity <values>] [--statistics]";
+	static final List<String> VALUE_OPTIONS = Arrays.asList("--port", "--baud", "--overflow", "--record", "--serve", "--interval", "--duration", "--capacity");
+	static final int DEFAULT_CAPACITY = 8192; // values per item kept uncompressed
+
+	private Database db;
+	private Recorder recorder;
+	private TelemetryServer server;
+	private boolean showStatistics;
+	private Statistics statistics;
+	private long startTime;
+
+	/**
+	 * @param args		Command line options, see the class documentation
+	 */
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+
+		List<String> ports = new ArrayList<String>();
+		int baudRate = 921600;
+		ByteQueue.Policy policy = ByteQueue.Policy.DROP_OLDEST;
+		String recordFile = null;
+		int servePort = -1;
+		int interval = 10;
+		int duration = 0;
+		int capacity = DEFAULT_CAPACITY;
+		boolean showStatistics = false;
+
+		try {
+			for(int i = 0; i < args.length; i++) {
+				String option = args[i];
+				if(option.equals("--headless"))
+					continue;
+				else if(option.equals("--statistics"))
+					showStatistics = true;
+				else if(!VALUE_OPTIONS.contains(option))
+					throw new IllegalArgumentException("Unknown option " + option);
+				else if(i + 1 == args.length)
+					throw new IllegalArgumentException("Missing value for " + option);
+				else if(option.equals("--port"))
+					ports.add(args[++i]);
+				else if(option.equals("--baud"))
+					baudRate = Integer.parseInt(args[++i]);
+				else if(option.equals("--overflow"))
+					policy = ByteQueue.Policy.valueOf(args[++i].toUpperCase().replace('-', '_'));
+				else if(option.equals("--record"))
+					recordFile = args[++i];
+				else if(option.equals("--serve"))
+					servePort = Integer.parseInt(args[++i]);
+				else if(option.equals("--interval"))
+					interval = Integer.parseInt(args[++i]);
+				else if(option.equals("--duration"))
+					duration = Integer.parseInt(args[++i]);
+				else
+					capacity = Integer.parseInt(args[++i]);
+			}
+			if(ports.isEmpty())
+				throw new IllegalArgumentException("No port given");
+			if(interval < 1)
+				throw new IllegalArgumentException("The interval must be at least 1 second");
+		} catch(IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(1);
+		}
+
+		Headless headless = new Headless(capacity, showStatistics);
+		if(!headless.connect(ports, baudRate, policy))
+			System.exit(1);
+		if(recordFile != null && !headless.record(new File(recordFile)))
+			System.exit(1);
+		if(servePort != -1 && !headless.serve(servePort))
+			System.exit(1);
+		headless.run(interval, duration);
+	}
+
+	/**
+	 * @param capacity			Number of values of each item kept uncompressed
+	 * @param showStatistics	True to print the statistics of each item with each summary
+	 */
+	public Headless(int capacity, boolean showStatistics) {
+		this.db = new Database(capacity);
+		this.showStatistics = showStatistics;
+		this.statistics = new Statistics();
+		this.startTime = System.nanoTime();
+		db.getIngestMetrics().register();
+	}
+
+	/**
+	 * Connect the ports, each with its own SerialPortListener and thread. Items of the first port use the default namespace.
+	 *
+	 * @param ports			Port names, see SerialPortListener.establishConnection()
+	 * @param baudRate		Baud rate
+	 * @param policy		What to do with received bytes if the parser falls behind
+	 * @return				True if every port was connected
+	 */
+	public boolean connect(List<String> ports, int baudRate, ByteQueue.Policy policy) {
+		List<String> namespaces = new ArrayList<String>();
+		for(String port : ports) {
+			String namespace = namespaces.isEmpty() ? "" : SerialPortListener.getNamespace(port, namespaces);
+			SerialPortListener listener = new SerialPortListener(db, namespace, policy);
+			if(!listener.establishConnection(port, baudRate))
+				return false;
+			Thread thread = new Thread(listener, "Telemetry " + port);
+			thread.setDaemon(true); // the main thread decides when to stop
+			thread.start();
+			namespaces.add(namespace);
+		}
+		return true;
+	}
+
+	/**
+	 * Start recording every frame to a file.
+	 *
+	 * @param file		File to create
+	 * @return			True if recording started
+	 */
+	public boolean record(File file) {
+		try {
+			recorder = new Recorder(db, file);
+			recorder.start();
+			return true;
+		} catch(Exception e) {
+			System.err.println("Unable to create recording file " + file.getAbsolutePath());
+			recorder = null;
+			return false;
+		}
+	}
+
+	/**
+	 * Start streaming the telemetry to TCP clients.
+	 *
+	 * @param port		TCP port to listen on
+	 * @return			True if the server started
+	 */
+	public boolean serve(int port) {
+		try {
+			server = new TelemetryServer(db, port);
+			server.start();
+			return true;
+		} catch(Exception e) {
+			System.err.println("Unable to share telemetry on TCP port " + port);
+			server = null;
+			return false;
+		}
+	}
+
+	/**
+	 * Print a summary every interval, until the duration has passed or the process is stopped.
+	 *
+	 * @param interval		Seconds between summaries
+	 * @param duration		Seconds to run, or 0 to run until stopped
+	 */
+	public void run(int interval, int duration) {
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			@Override
+			public void run() {
+				stop();
+			}
+		}, "Shutdown"));
+
+		long end = startTime + duration * 1000000000L;
+		try {
+			while(duration == 0 || System.nanoTime() < end) {
+				long remaining = (duration == 0) ? Long.MAX_VALUE : (end - System.nanoTime() + 999999) / 1000000; // ms, rounded up
+				Thread.sleep(Math.max(1, Math.min(interval * 1000L, remaining)));
+				if(duration == 0 || System.nanoTime() < end)
+					printSummary();
+			}
+		} catch(InterruptedException e) {
+			// stop
+		}
+		System.exit(0); // runs the shutdown hook
+	}
+
+	/**
+	 * Finish the recording and print the final summary. Called once, when the process exits.
+	 */
+	private void stop() {
+		if(recorder != null)
+			recorder.stop();
+		if(server != null)
+			server.stop();
+		System.out.println("Final:");
+		printSummary();
+	}
+
+	/**
+	 * Print the throughput and errors so far, and the statistics of each item if enabled.
+	 */
+	private void printSummary() {
+		IngestMetrics metrics = db.getIngestMetrics();
+		long values = 0;
+		int channelCount = db.getChannelCount();
+		for(int id = 0; id < channelCount; id++)
+			values += db.getListSize(id);
+		long rejected = 0;
+		for(long count : metrics.getRejectedLines().values())
+			rejected += count;
+		Runtime runtime = Runtime.getRuntime();
+
+		System.out.println(String.format("%6ds  %9.0f lines/s  %10.0f bytes/s  %d items  %d values  %d rejected  %d unknown  %d dropped blocks  %d read errors  parse p99 %dns  heap %dMB",
+		                                 (System.nanoTime() - startTime) / 1000000000L,
+		                                 metrics.getLinesPerSecond(),
+		                                 metrics.getBytesPerSecond(),
+		                                 channelCount,
+		                                 values,
+		                                 rejected,
+		                                 metrics.getUnknownNames(),
+		                                 metrics.getDroppedBlocks(),
+		                                 metrics.getReadErrors(),
+		                                 metrics.getParseLatencyNanoseconds().getPercentile99(),
+		                                 (runtime.totalMemory() - runtime.freeMemory()) / 1048576));
+
+		if(!showStatistics)
+			return;
+		for(int id = 0; id < channelCount; id++) {
+			db.getStatistics(id, statistics);
+			System.out.println(String.format("        %-24s %8.1f/s  mean %10.2f  sd %9.2f  min %7d  max %7d  (last %d: mean %10.2f  sd %9.2f  min %7d  max %7d)",
+			                                 db.getChannelName(id),
+			                                 db.getSampleRate(id, IngestMetrics.SAMPLE_RATE_VALUES),
+			                                 statistics.getMean(),
+			                                 statistics.getStandardDeviation(),
+			                                 statistics.getMin(),
+			                                 statistics.getMax(),
+			                                 statistics.getWindowCount(),
+			                                 statistics.getWindowMean(),
+			                                 statistics.getWindowStandardDeviation(),
+			                                 statistics.getWindowMin(),
+			                                 statistics.getWindowMax()));
+		}
+	}
+
+}
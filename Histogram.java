@@ -0,0 +1,181 @@
+package com.farrellf.TelemetryGUI;
+
+import java.beans.ConstructorProperties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations (or any other non-negative numbers), for watching latencies during long runs.
+ *
+ * Values are counted in logarithmic buckets: values below 8 are exact, and above that each power of two is split into 4 buckets,
+ * so percentiles are accurate to within 25%. Recording a value is a few atomic increments and never allocates,
+ * and any number of threads may record and read at the same time.
+ *
+ * @author Farrell Farahbod
+ * @version 1.0
+ */
+public class Histogram {
+
+	static final int SUB_BUCKET_BITS = 2;
+	static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	static final int LINEAR = 2 * SUB_BUCKETS;  // values below this each have their own bucket
+	static final int BUCKETS = LINEAR + (63 - (SUB_BUCKET_BITS + 1)) * SUB_BUCKETS;
+
+	private final AtomicLongArray buckets;
+	private final AtomicLong sum;
+	private final AtomicLong max;
+
+	public Histogram() {
+		buckets = new AtomicLongArray(BUCKETS);
+		sum = new AtomicLong();
+		max = new AtomicLong();
+	}
+
+	/**
+	 * Count a value.
+	 *
+	 * @param value		The value, negative values are counted as 0
+	 */
+	public void record(long value) {
+		if(value < 0)
+			value = 0;
+		buckets.incrementAndGet(getBucket(value));
+		sum.addAndGet(value);
+		long previous = max.get();
+		while(value > previous && !max.compareAndSet(previous, value))
+			previous = max.get();
+	}
+
+	/**
+	 * Forget all values.
+	 */
+	public void reset() {
+		for(int i = 0; i < BUCKETS; i++)
+			buckets.set(i, 0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	/**
+	 * @return		The count, mean, max and percentiles of the values recorded so far
+	 */
+	public Summary getSummary() {
+		long[] counts = new long[BUCKETS];
+		long total = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			counts[i] = buckets.get(i);
+			total += counts[i];
+		}
+		long max = this.max.get();
+
+		return new Summary(total,
+		                   (total == 0) ? 0 : (double) sum.get() / total,
+		                   getPercentile(counts, total, max, 0.50),
+		                   getPercentile(counts, total, max, 0.90),
+		                   getPercentile(counts, total, max, 0.99),
+		                   getPercentile(counts, total, max, 0.999),
+		                   max);
+	}
+
+	/**
+	 * @param counts		Count of each bucket
+	 * @param total			Sum of the counts
+	 * @param max			Largest value recorded
+	 * @param fraction		Fraction of values at or below the percentile, for example 0.99
+	 * @return				Upper bound of the bucket containing the percentile, but at most max
+	 */
+	private static long getPercentile(long[] counts, long total, long max, double fraction) {
+		if(total == 0)
+			return 0;
+
+		long target = (long) Math.ceil(total * fraction);
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if(seen >= target)
+				return Math.min(max, getBucketStart(i + 1) - 1);
+		}
+		return max;
+	}
+
+	/**
+	 * @param value		A non-negative value
+	 * @return			Index of the bucket counting that value
+	 */
+	static int getBucket(long value) {
+		if(value < LINEAR)
+			return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value); // at least SUB_BUCKET_BITS + 1
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return LINEAR + (exponent - (SUB_BUCKET_BITS + 1)) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * @param bucket	Index of a bucket
+	 * @return			Smallest value counted by that bucket
+	 */
+	static long getBucketStart(int bucket) {
+		if(bucket < LINEAR)
+			return bucket;
+		if(bucket >= BUCKETS)
+			return Long.MAX_VALUE;
+		int exponent = (bucket - LINEAR) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+		int subBucket = (bucket - LINEAR) % SUB_BUCKETS;
+		return (long) (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+	}
+
+	/**
+	 * A summary of a Histogram, shown by JConsole as a composite attribute.
+	 */
+	public static class Summary {
+
+		private final long count;
+		private final double mean;
+		private final long percentile50;
+		private final long percentile90;
+		private final long percentile99;
+		private final long percentile999;
+		private final long max;
+
+		@ConstructorProperties({"count", "mean", "percentile50", "percentile90", "percentile99", "percentile999", "max"})
+		public Summary(long count, double mean, long percentile50, long percentile90, long percentile99, long percentile999, long max) {
+			this.count = count;
+			this.mean = mean;
+			this.percentile50 = percentile50;
+			this.percentile90 = percentile90;
+			this.percentile99 = percentile99;
+			this.percentile999 = percentile999;
+			this.max = max;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public double getMean() {
+			return mean;
+		}
+
+		public long getPercentile50() {
+			return percentile50;
+		}
+
+		public long getPercentile90() {
+			return percentile90;
+		}
+
+		public long getPercentile99() {
+			return percentile99;
+		}
+
+		public long getPercentile999() {
+			return percentile999;
+		}
+
+		public long getMax() {
+			return max;
+		}
+
+	}
+
+}
@@ -0,0 +1,227 @@
+package com.farrellf.TelemetryGUI;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ObjectName;
+
+/**
+ * Counters and histograms for the incoming telemetry, published as a JMX MBean so they can be watched with JConsole during long runs.
+ *
+ * Each Database has one of these, shared by every parser writing to it.
+ * A parser counts lines, rejections and unknown names in its own fields, and adds them here once per block of received bytes,
+ * so the per-line cost is an increment of a plain field. The parse latency is the time to parse a block divided by the number of lines in it,
+ * since timing each line would cost more than parsing it.
+ *
+ * @author Farrell Farahbod
+ * @version 1.0
+ */
+public class IngestMetrics implements IngestMetricsMXBean {
+
+	static final String OBJECT_NAME = "com.farrellf.TelemetryGUI:type=IngestMetrics";
+	static final int SAMPLE_RATE_VALUES = 100; // recent values averaged for each item's sample rate
+
+	/**
+	 * Reasons a line is rejected as corrupt.
+	 */
+	public enum Rejection {
+		LENGTH("Wrong length"),
+		NAME("Corrupt or missing name"),
+		VALUE("Corrupt value"),
+		CHECKSUM("Bad checksum"); // binary packets only
+
+		final String description;
+
+		Rejection(String description) {
+			this.description = description;
+		}
+	}
+
+	private final Database db;
+	private final LongAdder lines;
+	private final LongAdder bytes;
+	private final LongAdder[] rejected; // indexed by Rejection.ordinal()
+	private final LongAdder unknownNames;
+	private final LongAdder readErrors;
+	private final LongAdder droppedBlocks;
+	private final LongAdder droppedBytes;
+	private final Histogram parseLatency;
+
+	// rates, updated when read
+	private long rateTime;
+	private long rateLines;
+	private long rateBytes;
+	private double linesPerSecond;
+	private double bytesPerSecond;
+
+	/**
+	 * @param db	Database receiving the values, for the sample rate of each item
+	 */
+	public IngestMetrics(Database db) {
+		this.db = db;
+		lines = new LongAdder();
+		bytes = new LongAdder();
+		rejected = new LongAdder[Rejection.values().length];
+		for(int i = 0; i < rejected.length; i++)
+			rejected[i] = new LongAdder();
+		unknownNames = new LongAdder();
+		readErrors = new LongAdder();
+		droppedBlocks = new LongAdder();
+		droppedBytes = new LongAdder();
+		parseLatency = new Histogram();
+		rateTime = System.nanoTime();
+	}
+
+	/**
+	 * Register with the platform MBean server, so JConsole can see the metrics.
+	 */
+	public void register() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+		} catch(Exception e) {
+			System.err.println("Unable to register " + OBJECT_NAME + ".");
+			System.err.println(e.getClass().toString());
+		}
+	}
+
+	/**
+	 * Add the counts from one block of received bytes.
+	 *
+	 * @param blockBytes		Number of bytes
+	 * @param blockLines		Number of non-empty lines (or binary packets) that ended in the block
+	 * @param blockRejected		Number of those lines rejected, indexed by Rejection.ordinal()
+	 * @param blockUnknownNames	Number of values ignored because their name had not been seen before
+	 * @param elapsed			Nanoseconds spent parsing the block
+	 */
+	public void recordBlock(int blockBytes, int blockLines, int[] blockRejected, int blockUnknownNames, long elapsed) {
+		bytes.add(blockBytes);
+		if(blockLines == 0)
+			return;
+
+		lines.add(blockLines);
+		for(int i = 0; i < blockRejected.length; i++)
+			if(blockRejected[i] != 0)
+				rejected[i].add(blockRejected[i]);
+		if(blockUnknownNames != 0)
+			unknownNames.add(blockUnknownNames);
+		parseLatency.record(elapsed / blockLines);
+	}
+
+	/**
+	 * Count an error while reading from the port.
+	 */
+	public void recordReadError() {
+		readErrors.increment();
+	}
+
+	/**
+	 * Count a block of received bytes dropped because the parser fell behind. See ByteQueue.
+	 *
+	 * @param blockBytes	Number of bytes in the block
+	 */
+	public void recordDrop(int blockBytes) {
+		droppedBlocks.increment();
+		droppedBytes.add(blockBytes);
+	}
+
+	@Override
+	public double getLinesPerSecond() {
+		updateRates();
+		return linesPerSecond;
+	}
+
+	@Override
+	public double getBytesPerSecond() {
+		updateRates();
+		return bytesPerSecond;
+	}
+
+	/**
+	 * Recalculate the rates if at least a second has passed, so several clients polling at once see the same rates.
+	 */
+	private synchronized void updateRates() {
+		long now = System.nanoTime();
+		double seconds = (now - rateTime) / 1000000000.0;
+		if(seconds < 1)
+			return;
+
+		long lines = this.lines.sum();
+		long bytes = this.bytes.sum();
+		linesPerSecond = (lines - rateLines) / seconds;
+		bytesPerSecond = (bytes - rateBytes) / seconds;
+		rateTime = now;
+		rateLines = lines;
+		rateBytes = bytes;
+	}
+
+	@Override
+	public long getLines() {
+		return lines.sum();
+	}
+
+	@Override
+	public long getBytes() {
+		return bytes.sum();
+	}
+
+	@Override
+	public Map<String, Long> getRejectedLines() {
+		Map<String, Long> map = new LinkedHashMap<String, Long>();
+		for(Rejection reason : Rejection.values())
+			map.put(reason.description, rejected[reason.ordinal()].sum());
+		return map;
+	}
+
+	@Override
+	public long getUnknownNames() {
+		return unknownNames.sum();
+	}
+
+	@Override
+	public long getReadErrors() {
+		return readErrors.sum();
+	}
+
+	@Override
+	public long getDroppedBlocks() {
+		return droppedBlocks.sum();
+	}
+
+	@Override
+	public long getDroppedBytes() {
+		return droppedBytes.sum();
+	}
+
+	@Override
+	public Histogram.Summary getParseLatencyNanoseconds() {
+		return parseLatency.getSummary();
+	}
+
+	@Override
+	public Map<String, Double> getSampleRates() {
+		Map<String, Double> map = new TreeMap<String, Double>();
+		int count = db.getChannelCount();
+		for(int id = 0; id < count; id++)
+			map.put(db.getChannelName(id), db.getSampleRate(id, SAMPLE_RATE_VALUES));
+		return map;
+	}
+
+	@Override
+	public synchronized void reset() {
+		lines.reset();
+		bytes.reset();
+		for(LongAdder counter : rejected)
+			counter.reset();
+		unknownNames.reset();
+		readErrors.reset();
+		droppedBlocks.reset();
+		droppedBytes.reset();
+		parseLatency.reset();
+		rateTime = System.nanoTime();
+		rateLines = 0;
+		rateBytes = 0;
+	}
+
+}
@@ -0,0 +1,73 @@
+package com.farrellf.TelemetryGUI;
+
+import java.util.Map;
+
+/**
+ * Management interface for IngestMetrics, shown by JConsole under com.farrellf.TelemetryGUI / IngestMetrics.
+ *
+ * @author Farrell Farahbod
+ * @version 1.0
+ */
+public interface IngestMetricsMXBean {
+
+	/**
+	 * @return		Lines (or binary packets) parsed per second, over the last second or so
+	 */
+	public double getLinesPerSecond();
+
+	/**
+	 * @return		Bytes received per second, over the last second or so
+	 */
+	public double getBytesPerSecond();
+
+	/**
+	 * @return		Number of non-empty lines (or binary packets) parsed, including rejected ones
+	 */
+	public long getLines();
+
+	/**
+	 * @return		Number of bytes received and parsed, not including dropped bytes
+	 */
+	public long getBytes();
+
+	/**
+	 * @return		Number of lines (or binary packets) rejected as corrupt, by reason
+	 */
+	public Map<String, Long> getRejectedLines();
+
+	/**
+	 * @return		Number of values ignored because their item name had not been seen before
+	 */
+	public long getUnknownNames();
+
+	/**
+	 * @return		Number of errors while reading from the port
+	 */
+	public long getReadErrors();
+
+	/**
+	 * @return		Number of blocks of received bytes dropped because the parser fell behind
+	 */
+	public long getDroppedBlocks();
+
+	/**
+	 * @return		Number of bytes in the dropped blocks
+	 */
+	public long getDroppedBytes();
+
+	/**
+	 * @return		Time to parse one line, in nanoseconds, averaged over each block of received bytes
+	 */
+	public Histogram.Summary getParseLatencyNanoseconds();
+
+	/**
+	 * @return		Values per second received for each item, averaged over its recent values
+	 */
+	public Map<String, Double> getSampleRates();
+
+	/**
+	 * Set the counters and the histogram back to zero.
+	 */
+	public void reset();
+
+}
@@ -0,0 +1,143 @@
+package com.farrellf.TelemetryGUI;
+
+/**
+ * Optional tracing of how long values take to travel from the serial port to the screen.
+ *
+ * Each value is already timestamped when its bytes are read (see TelemetryParser.)
+ * While tracing is enabled, the Database also notes when each frame is committed, and the main window and each LineGraph
+ * report each time they show new values. Histograms are kept for each stage:
+ *   Read to commit: values wait in the parser's Frame until their screen is complete.
+ *   Commit to display (newest value): the newest value waits for the database, the event dispatch thread, and painting.
+ *   Read to display (newest value): the total for the newest value, the best case.
+ *   Read to display (oldest new value): the total for the oldest value that had not been shown yet, the worst case.
+ *     It also includes the wait for the next RenderScheduler tick, so the difference from the newest value shows the cost of the timer.
+ * Time spent in the operating system's or the serial driver's buffers, before the bytes are read, can not be seen from here.
+ *
+ * When tracing is disabled, the only cost is checking a flag once per frame and once per render.
+ * A LatencyWindow shows the percentiles, and enables tracing while it is open.
+ *
+ * @author Farrell Farahbod
+ * @version 1.0
+ */
+public class LatencyTracer {
+
+	/**
+	 * Stages that are timed.
+	 */
+	public enum Stage {
+		READ_TO_COMMIT("Read to commit"),
+		COMMIT_TO_MAIN_WINDOW("Commit to main window (newest value)"),
+		READ_TO_MAIN_WINDOW("Read to main window (newest value)"),
+		OLDEST_READ_TO_MAIN_WINDOW("Read to main window (oldest new value)"),
+		COMMIT_TO_LINE_GRAPH("Commit to line graph (newest value)"),
+		READ_TO_LINE_GRAPH("Read to line graph (newest value)"),
+		OLDEST_READ_TO_LINE_GRAPH("Read to line graph (oldest new value)");
+
+		final String description;
+
+		Stage(String description) {
+			this.description = description;
+		}
+	}
+
+	/**
+	 * Places where values are shown.
+	 */
+	public enum Display {
+		MAIN_WINDOW(Stage.COMMIT_TO_MAIN_WINDOW, Stage.READ_TO_MAIN_WINDOW, Stage.OLDEST_READ_TO_MAIN_WINDOW),
+		LINE_GRAPH(Stage.COMMIT_TO_LINE_GRAPH, Stage.READ_TO_LINE_GRAPH, Stage.OLDEST_READ_TO_LINE_GRAPH);
+
+		final Stage fromCommit;
+		final Stage fromRead;
+		final Stage fromOldestRead;
+
+		Display(Stage fromCommit, Stage fromRead, Stage fromOldestRead) {
+			this.fromCommit = fromCommit;
+			this.fromRead = fromRead;
+			this.fromOldestRead = fromOldestRead;
+		}
+	}
+
+	private final Database db;
+	private final Histogram[] histograms; // indexed by Stage.ordinal()
+	private volatile boolean enabled;
+	private volatile long enableTime;     // commit times from before this are left over from an earlier trace
+
+	/**
+	 * @param db	Database receiving the values
+	 */
+	public LatencyTracer(Database db) {
+		this.db = db;
+		histograms = new Histogram[Stage.values().length];
+		for(int i = 0; i < histograms.length; i++)
+			histograms[i] = new Histogram();
+		enabled = false;
+	}
+
+	/**
+	 * Start or stop tracing. Starting clears the histograms.
+	 *
+	 * @param enabled	True to trace
+	 */
+	public synchronized void setEnabled(boolean enabled) {
+		if(enabled && !this.enabled) {
+			for(Histogram histogram : histograms)
+				histogram.reset();
+			enableTime = System.nanoTime();
+		}
+		this.enabled = enabled;
+	}
+
+	/**
+	 * @return		True while tracing
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Record a committed Frame. Called by the Database.
+	 *
+	 * @param readTime		System.nanoTime() when the oldest value of the frame was read
+	 * @param commitTime	System.nanoTime() when the frame was committed
+	 */
+	public void recordCommit(long readTime, long commitTime) {
+		histograms[Stage.READ_TO_COMMIT.ordinal()].record(commitTime - readTime);
+	}
+
+	/**
+	 * Record that a display has been updated with the newest values of a channel, if they have not been shown by this display before.
+	 * Call right after updating the display, on the event dispatch thread.
+	 *
+	 * @param channel		Channel id
+	 * @param lastCount		Value returned by the previous call for this display and channel, initially 0
+	 * @param display		The kind of display
+	 * @return				Number of values of the channel that have now been shown, to be passed to the next call
+	 */
+	public long traceDisplay(int channel, long lastCount, Display display) {
+		long count = db.getListSize(channel);
+		if(count <= lastCount)
+			return lastCount;
+
+		long now = System.nanoTime();
+		long commitTime = db.getCommitTime(channel, count);
+		long readTime = db.getTimestamp(channel, count - 1);
+		long oldestReadTime = db.getTimestamp(channel, lastCount);
+		if(commitTime >= enableTime) {
+			histograms[display.fromCommit.ordinal()].record(now - commitTime);
+			histograms[display.fromRead.ordinal()].record(now - readTime);
+		}
+		if(oldestReadTime >= enableTime) // otherwise it arrived before tracing started, or this is the first update of the display
+			histograms[display.fromOldestRead.ordinal()].record(now - oldestReadTime);
+		return count;
+	}
+
+	/**
+	 * @param stage		A stage
+	 * @return			Latencies of that stage since tracing was enabled, in nanoseconds
+	 */
+	public Histogram.Summary getSummary(Stage stage) {
+		return histograms[stage.ordinal()].getSummary();
+	}
+
+}
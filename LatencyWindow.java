@@ -0,0 +1,118 @@
+package com.farrellf.TelemetryGUI;
+
+import java.awt.BorderLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.text.DecimalFormat;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.Timer;
+import javax.swing.UIManager;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * A window showing the percentile latencies of each stage traced by the Database's LatencyTracer.
+ * Tracing is enabled while the window is open, and the table is updated twice a second.
+ *
+ * @author  Farrell Farahbod
+ * @version 1.0
+ */
+public class LatencyWindow extends JFrame implements ActionListener {
+
+	static final int UPDATE_PERIOD = 500; // ms
+	static final String[] COLUMNS = {"Stage", "Count", "Mean", "50%", "90%", "99%", "99.9%", "Max"};
+
+	LatencyTracer tracer;
+	Timer timer;
+	Histogram.Summary[] summaries;
+	DecimalFormat df;
+	AbstractTableModel model;
+
+	/**
+	 * Open the window and start tracing.
+	 *
+	 * @param db	Database receiving the values
+	 */
+	public LatencyWindow(Database db) {
+		super();
+		this.tracer = db.getLatencyTracer();
+		this.summaries = new Histogram.Summary[LatencyTracer.Stage.values().length];
+		this.df = new DecimalFormat("0.00");
+		setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+		setTitle("Latency");
+		setSize(800, 230);
+		try {UIManager.setLookAndFeel("javax.swing.plaf.nimbus.NimbusLookAndFeel");} catch (Exception e) {}
+
+		model = new AbstractTableModel() {
+			@Override
+			public int getRowCount() {
+				return summaries.length;
+			}
+			@Override
+			public int getColumnCount() {
+				return COLUMNS.length;
+			}
+			@Override
+			public String getColumnName(int column) {
+				return COLUMNS[column];
+			}
+			@Override
+			public Object getValueAt(int row, int column) {
+				Histogram.Summary summary = summaries[row];
+				switch(column) {
+					case 0:  return LatencyTracer.Stage.values()[row].description;
+					case 1:  return summary.getCount();
+					case 2:  return milliseconds(summary.getMean());
+					case 3:  return milliseconds(summary.getPercentile50());
+					case 4:  return milliseconds(summary.getPercentile90());
+					case 5:  return milliseconds(summary.getPercentile99());
+					case 6:  return milliseconds(summary.getPercentile999());
+					default: return milliseconds(summary.getMax());
+				}
+			}
+		};
+		update();
+
+		add(new JScrollPane(new JTable(model)), BorderLayout.CENTER);
+		add(new JLabel(" Milliseconds from when the bytes of a value were read. Time spent in the serial driver before that is not included."), BorderLayout.SOUTH);
+
+		tracer.setEnabled(true);
+		timer = new Timer(UPDATE_PERIOD, this);
+		timer.start();
+		setVisible(true);
+	}
+
+	private String milliseconds(double nanoseconds) {
+		return df.format(nanoseconds / 1000000.0);
+	}
+
+	/**
+	 * Read the latest percentiles.
+	 */
+	private void update() {
+		for(LatencyTracer.Stage stage : LatencyTracer.Stage.values())
+			summaries[stage.ordinal()] = tracer.getSummary(stage);
+		model.fireTableRowsUpdated(0, summaries.length - 1);
+	}
+
+	/**
+	 * Timer tick: update the table.
+	 */
+	@Override
+	public void actionPerformed(ActionEvent e) {
+		update();
+	}
+
+	/**
+	 * Stop tracing when the window is closed.
+	 */
+	@Override
+	public void dispose() {
+		timer.stop();
+		tracer.setEnabled(false);
+		super.dispose();
+	}
+
+}
@@ -1,40 +1,62 @@
 package com.farrellf.TelemetryGUI;
 
+import java.awt.BorderLayout;
 import java.awt.Color;
+import java.awt.FlowLayout;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
 import java.awt.GraphicsEnvironment;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.util.List;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.image.BufferedImage;
+import javax.swing.JComboBox;
 import javax.swing.JFrame;
+import javax.swing.JLabel;
 import javax.swing.JPanel;
-import javax.swing.Timer;
 import javax.swing.UIManager;
 
 /**
  * A window for showing a live line graph of a telemetry item.
  * The line graph shows the recent history of the item, similar to the "roll mode" of an oscilloscope.
+ * The history is either a number of samples, evenly spaced, or a number of seconds, with each sample placed at the time it was received.
+ * The samples in each pixel column are drawn as their min/max envelope, so the cost of drawing depends on the width of the window, not the length of the history.
+ * The graph can be zoomed and panned through the whole session.
  * 
  * @author  Farrell Farahbod
  * @version 1.0
  *
  */
-public class LineGraph extends JFrame implements ActionListener {
+public class LineGraph extends JFrame implements ActionListener, Renderable {
 	
-	Timer timer;
+	// choices for how much history to show: a number of samples (0 = all) or a number of seconds
+	static final String[] HISTORY_CHOICES = {"500 samples", "1000 samples", "5000 samples", "All samples", "1 second", "5 seconds", "10 seconds", "60 seconds"};
+	static final int[] HISTORY_SAMPLES = {500, 1000, 5000, 0, 0, 0, 0, 0};
+	static final double[] HISTORY_SECONDS = {0, 0, 0, 0, 1, 5, 10, 60};
+	
+	RenderScheduler scheduler;
+	int[] channels;
+	Chart chart;
+	JComboBox<String> historySelection;
 
 	/**
 	 * Initialize the window.
 	 * 
 	 * @param windowName	Name to show in the title bar
-	 * @param list			List of values
+	 * @param db			Database containing the item
+	 * @param scheduler		Scheduler that redraws the window when new values arrive
+	 * @param channel		Channel id of the item in the database
 	 * @param min			Minimum value (scales the graph)
 	 * @param max			Maximum value (scales the graph)
 	 * @param factor		Factor to divide the raw integers by, to get the formatted values
-	 * @param maxLength		How much history to show (scales the graph)
+	 * @param maxLength		How many samples of history to show (scales the graph.) Can be changed to a number of seconds in the window.
 	 */
-	public LineGraph(String windowName, final List<Integer> list, int min, int max, double factor, int maxLength) {
+	public LineGraph(String windowName, Database db, RenderScheduler scheduler, int channel, int min, int max, double factor, int maxLength) {
 		super();
+		this.scheduler = scheduler;
+		this.channels = new int[] {channel};
 		setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
 		setTitle("Line Graph: " + windowName);
 		setSize(800, 335);
@@ -43,45 +65,179 @@ public class LineGraph extends JFrame implements ActionListener {
 		setAlwaysOnTop(true);
 		try {UIManager.setLookAndFeel("javax.swing.plaf.nimbus.NimbusLookAndFeel");} catch (Exception e) {}
 		
-		Chart c = new Chart(list, min, max, factor, maxLength);
-		add(c);
+		chart = new Chart(db, channel, min, max, factor, maxLength);
+		chart.paintTime = scheduler.getMetrics().lineGraphPaintTime;
+		add(chart, BorderLayout.CENTER);
+		
+		historySelection = new JComboBox<String>(HISTORY_CHOICES);
+		for(int i = 0; i < HISTORY_CHOICES.length; i++)
+			if(HISTORY_SAMPLES[i] == maxLength)
+				historySelection.setSelectedIndex(i);
+		historySelection.addActionListener(this);
+		JPanel controls = new JPanel(new FlowLayout(FlowLayout.LEFT));
+		controls.add(new JLabel("History:"));
+		controls.add(historySelection);
+		controls.add(new JLabel("Scroll to zoom, drag to pan, double-click to follow new values."));
+		add(controls, BorderLayout.NORTH);
 		
 		setVisible(true);
 		
-		// Redraw the window every 20ms (50Hz)
-		timer = new Timer(20, this);
-		timer.start();
+		// redraw the window when new values arrive
+		scheduler.add(this);
 	}
 	
 	/**
 	 * Graph is drawn on this JPanel
+	 * 
+	 * The graph is drawn into an offscreen image that is kept between repaints.
+	 * In roll mode (a number of samples, once that many exist, or all samples once the history is full) the scale is fixed,
+	 * so the existing image is shifted left by the columns that scrolled out of view, and only the newly exposed columns are drawn. The whole image is redrawn when the panel is resized or the scale changes.
+	 * 
+	 * When showing a number of samples, the mouse wheel zooms, dragging pans back through the history, and double-clicking returns to following the newest values.
+	 * When there are several samples per pixel, the graph is drawn from the level of the item's Pyramid that matches the scale, so zooming out to a whole session is as fast as showing 500 samples.
 	 */
-	private class Chart extends JPanel {
+	static class Chart extends JPanel {
 		
-		List<Integer> list;
+		static final int BLOCK_SIZE = 4096; // samples copied from the database at a time
+		static final int MIN_LENGTH = 10;   // samples shown when zoomed in all the way
+		
+		Database db;
+		int channel;
+		int[] buffer;
+		int[] maxBuffer;
+		int[] meanBuffer;
+		long[] timestampBuffer;
+		long[] columnStarts; // index of the first sample in each column, when showing a number of seconds from a pyramid level
 		double min;
 		double max;
 		double factor;
 		int maxLength;
+		double maxSeconds; // 0 = show maxLength samples instead
+		long viewEnd;      // index after the last sample shown, or -1 to follow the newest values
+		Histogram paintTime; // time spent painting, or null
+		long tracedCount;    // values shown, for the LatencyTracer
+		
+		BufferedImage image;
+		double imageScale;  // xScale of the samples in the image, NaN if the image must be redrawn
+		int imageLevel;     // pyramid level the image was drawn from, 0 for the samples themselves
+		long imageOrigin;   // column (sample index * xScale) at the left edge of the image
+		long imageFirst;    // index of the first sample shown in the image
+		long imageEnd;      // index after the last sample drawn into the image
+		
+		// the column being drawn
+		int column;         // Integer.MIN_VALUE if none
+		int columnTop;
+		int columnBottom;
+		int lastY;          // y of the most recent sample
+		
+		int dragX;          // x of the mouse when dragging
 		
 		/**
 		 * Configure the line graph
 		 * 
-		 * @param list			List of values
+		 * @param db			Database containing the item
+		 * @param channel		Channel id of the item in the database
 		 * @param min			Minimum value (scales the graph)
 		 * @param max			Maximum value (scales the graph)
 		 * @param factor		Factor to divide the raw integers by, to get the formatted values
 		 * @param maxLength		How much history to show (scales the graph)
 		 */
-		public Chart(List<Integer> list, int min, int max, double factor, int maxLength) {
-			this.list = list;
+		public Chart(Database db, int channel, int min, int max, double factor, int maxLength) {
+			this.db = db;
+			this.channel = channel;
+			this.buffer = new int[BLOCK_SIZE];
+			this.maxBuffer = new int[BLOCK_SIZE];
+			this.meanBuffer = new int[BLOCK_SIZE];
+			this.timestampBuffer = new long[BLOCK_SIZE];
 			this.min = min;
 			this.max = max;
 			this.factor = factor;
+			setHistory(maxLength, 0);
+			
+			MouseAdapter mouse = new MouseAdapter() {
+				@Override
+				public void mouseWheelMoved(MouseWheelEvent e) {
+					zoom(e.getX(), Math.pow(2, e.getPreciseWheelRotation()));
+				}
+				@Override
+				public void mousePressed(MouseEvent e) {
+					dragX = e.getX();
+				}
+				@Override
+				public void mouseDragged(MouseEvent e) {
+					pan(e.getX() - dragX);
+					dragX = e.getX();
+				}
+				@Override
+				public void mouseClicked(MouseEvent e) {
+					if(e.getClickCount() == 2) {
+						viewEnd = -1;
+						repaint();
+					}
+				}
+			};
+			addMouseListener(mouse);
+			addMouseMotionListener(mouse);
+			addMouseWheelListener(mouse);
+		}
+		
+		/**
+		 * Change how much history is shown, and follow the newest values
+		 * 
+		 * @param maxLength		How many samples to show, or 0 for all samples. Ignored if maxSeconds is not 0.
+		 * @param maxSeconds	How many seconds to show, or 0 to show a number of samples.
+		 */
+		public void setHistory(int maxLength, double maxSeconds) {
 			if(maxLength != 0)
 				this.maxLength = maxLength;
 			else
 				this.maxLength = Integer.MAX_VALUE;
+			this.maxSeconds = maxSeconds;
+			this.viewEnd = -1;
+			this.imageScale = Double.NaN;
+		}
+		
+		/**
+		 * Zoom in or out, keeping the sample under the mouse in place, or the newest value if following the newest values
+		 * 
+		 * @param x			Column under the mouse
+		 * @param scale		Factor to multiply the amount of history shown by
+		 */
+		void zoom(int x, double scale) {
+			if(maxSeconds != 0) {
+				maxSeconds *= scale;
+				imageScale = Double.NaN;
+				repaint();
+				return;
+			}
+			if(Double.isNaN(imageScale))
+				return; // nothing shown yet
+			
+			long listSize = db.getListSize(channel);
+			double anchor = imageFirst + (x / imageScale);
+			double length = Math.max(MIN_LENGTH, Math.min((imageEnd - imageFirst) * scale, listSize));
+			long end = (long) (anchor + (getWidth() - x) * length / getWidth());
+			maxLength = (int) Math.min(Integer.MAX_VALUE, (long) length);
+			if(viewEnd != -1)
+				viewEnd = (end >= listSize) ? -1 : Math.max(end, MIN_LENGTH);
+			repaint();
+		}
+		
+		/**
+		 * Move back or forward through the history
+		 * 
+		 * @param dx		Pixels to move the graph right by
+		 */
+		void pan(int dx) {
+			if(maxSeconds != 0 || Double.isNaN(imageScale))
+				return;
+			
+			long listSize = db.getListSize(channel);
+			long oldest = db.getOldestSummarizedIndex(channel, Pyramid.LEVELS);
+			long end = imageEnd - (long) (dx / imageScale);
+			end = Math.max(end, Math.min(listSize, oldest + (imageEnd - imageFirst)));
+			viewEnd = (end >= listSize) ? -1 : end;
+			repaint();
 		}
 		
 		/**
@@ -89,44 +245,337 @@ public class LineGraph extends JFrame implements ActionListener {
 		 */
 		@Override
 		public void paintComponent(Graphics g) {
-			super.paintComponent(g);
+			int width = getWidth();
+			int height = getHeight();
+			if(width <= 0 || height <= 0)
+				return;
+			long start = System.nanoTime();
+			
+			if(image == null || image.getWidth() != width || image.getHeight() != height) {
+				image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+				imageScale = Double.NaN;
+			}
+			
+			Graphics2D imageGraphics = image.createGraphics();
+			if(maxSeconds == 0)
+				updateSampleImage(imageGraphics, width, height);
+			else
+				updateTimeImage(imageGraphics, width, height);
+			imageGraphics.dispose();
+			
+			g.drawImage(image, 0, 0, null);
+			
+			if(paintTime != null)
+				paintTime.record(System.nanoTime() - start);
+			
+			LatencyTracer tracer = db.getLatencyTracer();
+			if(tracer.isEnabled() && viewEnd == -1)
+				tracedCount = tracer.traceDisplay(channel, tracedCount, LatencyTracer.Display.LINE_GRAPH);
+		}
+		
+		/**
+		 * Bring the image up to date, when showing a number of samples
+		 * 
+		 * @param g			Graphics of the image
+		 * @param width		Image width
+		 * @param height	Image height
+		 */
+		private void updateSampleImage(Graphics g, int width, int height) {
+			// find the visible part of the history
+			long listSize = db.getListSize(channel);
+			long end = (viewEnd == -1) ? listSize : Math.min(viewEnd, listSize);
+			long oldest = db.getOldestSummarizedIndex(channel, Pyramid.LEVELS);
+			long first = Math.max(oldest, end - maxLength);
+			long length = end - first;
+			if(length < 2) {
+				clear(g, 0, width, height);
+				imageScale = Double.NaN;
+				return;
+			}
 			
+			// scale the graph to maxLength values once enough history exists, otherwise stretch what exists
+			double xScale = (end - oldest > maxLength) ? (double) width / maxLength : (double) width / length;
+			long origin = (long) (first * xScale);
 			
-			double panelWidth = this.getWidth();
-			double panelHeight = this.getHeight();
-			double listSize = list.size();
-			double x1, x2, y1, y2;
-			int i;
+			// draw from the values if there are not many per pixel, otherwise from the coarsest pyramid level with buckets no larger than a pixel
+			// a coarser level is needed if the values or finer levels no longer reach back to the first visible value
+			int level = 0;
+			while(level < Pyramid.LEVELS && (Pyramid.getBucketSize(level + 1) <= 1 / xScale || first < db.getOldestSummarizedIndex(channel, level)))
+				level++;
 			
+			if(level == imageLevel && xScale == imageScale && first == imageFirst && end == imageEnd)
+				return; // nothing new
+			
+			long from;
+			if(level == imageLevel && xScale == imageScale && origin - imageOrigin < width && imageEnd > first && end >= imageEnd) {
+				// scroll: shift the image, then draw the samples after the last complete column
+				int shift = (int) (origin - imageOrigin);
+				if(shift > 0)
+					g.copyArea(shift, 0, width - shift, height, -shift, 0);
+				
+				// the last column drawn may have been partial, so draw all of its samples again
+				// when drawing from a pyramid level, the newest bucket may have been partial, so its line from the previous column changes too
+				long previous = columnStart(imageEnd - 1, level, xScale);
+				from = (level == 0) ? previous : columnStart(previous, level, xScale);
+				clear(g, (int) (getColumn((level == 0) ? imageEnd - 1 : previous, level, xScale) - origin), width, height);
+			} else {
+				from = columnStart(first, level, xScale); // the same left edge as scrolling produces
+				clear(g, 0, width, height);
+			}
+			if(level == 0)
+				drawSamples(g, from, end, origin, 0, xScale, height);
+			else
+				drawBuckets(g, level, from, end, origin, xScale, height);
+			
+			imageScale = xScale;
+			imageLevel = level;
+			imageOrigin = origin;
+			imageFirst = first;
+			imageEnd = end;
+		}
+		
+		/**
+		 * Redraw the image, when showing a number of seconds
+		 * 
+		 * @param g			Graphics of the image
+		 * @param width		Image width
+		 * @param height	Image height
+		 */
+		private void updateTimeImage(Graphics g, int width, int height) {
+			clear(g, 0, width, height);
+			imageScale = Double.NaN;
+			
+			long listSize = db.getListSize(channel);
+			if(listSize < 2)
+				return;
+			
+			// values received up to maxSeconds before the newest value
+			long windowNanos = (long) (maxSeconds * 1000000000.0);
+			long windowStart = db.getTimestamp(channel, listSize - 1) - windowNanos;
+			long first = Math.max(0, db.findIndex(channel, windowStart) - 1); // include the value before the window, so the line reaches the left edge
+			if(listSize - first < 2)
+				return;
+			double xScale = (double) width / windowNanos;
+			
+			// draw from the values if there are not many per pixel, otherwise from a pyramid level, chosen like updateSampleImage() does
+			// so the work depends on the width of the graph, not on how many values were received during the window
+			double samplesPerPixel = (double) (listSize - first) / width;
+			int level = 0;
+			while(level < Pyramid.LEVELS && (Pyramid.getBucketSize(level + 1) <= samplesPerPixel || first < db.getOldestSummarizedIndex(channel, level)))
+				level++;
+			
+			if(level == 0) {
+				drawSamples(g, first, listSize, 0, windowStart, xScale, height);
+				return;
+			}
+			
+			// the buckets have no timestamps, so find where each column starts instead, to within a column
+			if(columnStarts == null || columnStarts.length != width + 1)
+				columnStarts = new long[width + 1];
+			long columnNanos = (long) (1 / xScale);
+			for(int x = 0; x <= width; x++)
+				columnStarts[x] = db.findIndex(channel, windowStart + (long) (x / xScale), columnNanos);
+			drawBuckets(g, level, first, listSize, 0, xScale, height);
+		}
+		
+		/**
+		 * Get the column of a sample, when showing a number of samples.
+		 * When drawing from a pyramid level, a bucket is drawn in the column of the first sample it summarizes.
+		 * 
+		 * @param index		Index of the sample
+		 * @param level		Pyramid level, or 0 when drawing the samples themselves
+		 * @param xScale	Pixels per sample
+		 * @return			Column, not relative to the left edge of the image
+		 */
+		private long getColumn(long index, int level, double xScale) {
+			long unit = (level == 0) ? 1 : Pyramid.getBucketSize(level);
+			return (long) ((index / unit) * unit * xScale);
+		}
+		
+		/**
+		 * Find where to start drawing a column, when showing a number of samples
+		 * 
+		 * @param index		Index of a sample in the column
+		 * @param level		Pyramid level, or 0 when drawing the samples themselves
+		 * @param xScale	Pixels per sample
+		 * @return			Index of the sample (or start of the bucket) before the first one in the same column, so the line from the previous column is drawn too
+		 */
+		private long columnStart(long index, int level, double xScale) {
+			long unit = (level == 0) ? 1 : Pyramid.getBucketSize(level);
+			long oldest = db.getOldestSummarizedIndex(channel, level) / unit * unit;
+			long column = getColumn(index, level, xScale);
+			index = index / unit * unit;
+			while(index > oldest && getColumn(index - unit, level, xScale) == column)
+				index -= unit;
+			return Math.max(oldest, index - unit);
+		}
+		
+		/**
+		 * Clear some columns of the image and draw the center line
+		 * 
+		 * @param g			Graphics of the image
+		 * @param x1		First column
+		 * @param x2		Column after the last one
+		 * @param height	Image height
+		 */
+		private void clear(Graphics g, int x1, int x2, int height) {
+			g.setColor(getBackground());
+			g.fillRect(x1, 0, x2 - x1, height);
 			g.setColor(Color.LIGHT_GRAY);
-			g.drawLine(0, (int) panelHeight/2, (int) panelWidth, (int) panelHeight/2);
+			g.drawLine(x1, height/2, x2, height/2);
+		}
+		
+		/**
+		 * Draw a range of samples
+		 * 
+		 * @param g				Graphics of the image
+		 * @param from			Index of the first sample
+		 * @param to			Index after the last sample
+		 * @param origin		Column of the left edge, when showing a number of samples
+		 * @param windowStart	Timestamp of the left edge, when showing a number of seconds
+		 * @param xScale		Pixels per sample, or per nanosecond
+		 * @param height		Image height
+		 */
+		private void drawSamples(Graphics g, long from, long to, long origin, long windowStart, double xScale, double height) {
+			double yScale = height / (max - min);
+			column = Integer.MIN_VALUE;
 			
+			g.setColor(Color.BLACK);
+			for(long block = from; block < to; block += BLOCK_SIZE) {
+				// copy the history one block at a time
+				int n = (int) Math.min(BLOCK_SIZE, to - block);
+				int valid = db.getValues(channel, block, buffer, n);
+				if(maxSeconds != 0)
+					valid = Math.min(valid, db.getTimestamps(channel, block, timestampBuffer, n));
+				
+				for(int i = n - valid; i < n; i++) {
+					int x;
+					if(maxSeconds == 0)
+						x = (int) ((long) ((block + i) * xScale) - origin);
+					else
+						x = (int) ((timestampBuffer[i] - windowStart) * xScale);
+					int y = (int) (height - (buffer[i] / factor - min) * yScale);
+					plot(g, x, y, y, y);
+				}
+			}
+			finishColumn(g);
+		}
+		
+		/**
+		 * Draw a range of samples from the summaries in a pyramid level
+		 * 
+		 * @param g				Graphics of the image
+		 * @param level			Pyramid level
+		 * @param from			Index of the first sample
+		 * @param to			Index after the last sample
+		 * @param origin		Column of the left edge, when showing a number of samples
+		 * @param xScale		Pixels per sample, when showing a number of samples
+		 * @param height		Image height
+		 */
+		private void drawBuckets(Graphics g, int level, long from, long to, long origin, double xScale, double height) {
+			double yScale = height / (max - min);
+			long bucketSize = Pyramid.getBucketSize(level);
+			long lastBucket = (to - 1) / bucketSize;
+			column = Integer.MIN_VALUE;
+			int timeColumn = -1; // when showing a number of seconds, buckets before columnStarts[0] are left of the image
 			
 			g.setColor(Color.BLACK);
-			if(listSize > maxLength)
-				i = (int) listSize - maxLength;
-			else
-				i = 1;
-
-			for(; i < listSize; i++) {
-				if(listSize > maxLength) {
-					x1 = (i - 1 - listSize + maxLength) / maxLength * panelWidth;
-					x2 = (i - listSize + maxLength) / maxLength * panelWidth;
-				} else {
-					x1 = (i - 1) / listSize * panelWidth;
-					x2 = i / listSize * panelWidth;
+			for(long block = from / bucketSize; block <= lastBucket; block += BLOCK_SIZE) {
+				// copy the summaries one block at a time
+				int n = (int) Math.min(BLOCK_SIZE, lastBucket + 1 - block);
+				int valid = db.getSummaries(channel, level, block, buffer, maxBuffer, meanBuffer, n);
+				
+				for(int i = n - valid; i < n; i++) {
+					int x;
+					if(maxSeconds == 0) {
+						x = (int) ((long) ((block + i) * bucketSize * xScale) - origin);
+					} else {
+						long start = (block + i) * bucketSize;
+						while(timeColumn < columnStarts.length - 1 && start >= columnStarts[timeColumn + 1])
+							timeColumn++;
+						x = timeColumn;
+					}
+					int yTop = (int) (height - (maxBuffer[i] / factor - min) * yScale);
+					int yBottom = (int) (height - (buffer[i] / factor - min) * yScale);
+					int y = (int) (height - (meanBuffer[i] / factor - min) * yScale);
+					plot(g, x, yTop, yBottom, y);
+				}
+			}
+			finishColumn(g);
+		}
+		
+		/**
+		 * Add a sample, or a summary of several samples, to the graph.
+		 * There can be far more samples than pixels, so the samples in each pixel column are reduced to their min/max envelope.
+		 * At most two lines are drawn per column: the envelope, and the line from the previous column.
+		 * Spikes remain visible because the envelope includes every sample.
+		 * 
+		 * @param g			Graphics of the image
+		 * @param x			Column
+		 * @param yTop		Highest point of the samples
+		 * @param yBottom	Lowest point of the samples
+		 * @param y			Point the line passes through: the sample, or the mean of the samples
+		 */
+		private void plot(Graphics g, int x, int yTop, int yBottom, int y) {
+			if(x != column) {
+				// finish the previous column, and connect it to this one
+				if(column != Integer.MIN_VALUE) {
+					finishColumn(g);
+					g.drawLine(column, lastY, x, y);
 				}
-				y1 = panelHeight - (list.get(i-1) / factor - min) * (panelHeight / (max - min));
-				y2 = panelHeight - (list.get(i) / factor - min) * (panelHeight / (max - min));
-				g.drawLine( (int) x1, (int) y1, (int) x2, (int) y2);
+				column = x;
+				columnTop = yTop;
+				columnBottom = yBottom;
+			} else {
+				if(yTop < columnTop)
+					columnTop = yTop;
+				if(yBottom > columnBottom)
+					columnBottom = yBottom;
 			}
+			lastY = y;
+		}
+		
+		/**
+		 * Draw the envelope of the current column
+		 * 
+		 * @param g			Graphics of the image
+		 */
+		private void finishColumn(Graphics g) {
+			if(column != Integer.MIN_VALUE && columnTop != columnBottom)
+				g.drawLine(column, columnTop, column, columnBottom);
 		}
 		
 	}
 
+	/**
+	 * A different amount of history was selected
+	 */
 	@Override
 	public void actionPerformed(ActionEvent e) {
-		this.repaint();
+		int i = historySelection.getSelectedIndex();
+		chart.setHistory(HISTORY_SAMPLES[i], HISTORY_SECONDS[i]);
+		scheduler.invalidate(this);
+	}
+	
+	@Override
+	public int[] getChannels() {
+		return channels;
+	}
+	
+	@Override
+	public boolean isOnScreen() {
+		return isShowing() && (getExtendedState() & ICONIFIED) == 0;
+	}
+	
+	@Override
+	public void render() {
+		chart.repaint();
+	}
+	
+	@Override
+	public void dispose() {
+		scheduler.remove(this);
+		super.dispose();
 	}
 	
 }
@@ -10,12 +10,24 @@ package com.farrellf.TelemetryGUI;
  *   and allows the user to spawn new windows showing the history of
  *   an item in the form of a line graph.
  * 
+ * Counters and frame times are published as JMX MBeans, see IngestMetrics and RenderMetrics.
+ * 
+ * With the --headless option no GUI is created, see Headless.
+ * 
  * @author  Farrell Farahbod
  * @version 1.0
  */
 public class Main {
 	public static void main(String[] args) {
+		for(String arg : args) {
+			if(arg.equals("--headless")) {
+				Headless.main(args);
+				return;
+			}
+		}
+		
 		Database db = new Database();	
+		db.getIngestMetrics().register();
 		TelemetryGUI gui = new TelemetryGUI(db);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,376 @@
+package com.farrellf.TelemetryGUI;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays a file made by the Recorder back into the Database.
+ *
+ * Frames are committed with Database.commitFrame(), the same path used by the TelemetryParser,
+ * so the GUI, line graphs and frame listeners behave exactly as they do with a live link.
+ *
+ * Playback can be real time, N times real time, or as fast as possible. Playing as fast as possible
+ * doubles as a throughput benchmark for the storage and GUI without a robot attached.
+ *
+ * When the file is opened, it is scanned once to build a sparse index: the file position and timestamp of one block per INDEX_INTERVAL.
+ * Seeking uses a binary search of the index, then reads forward at most one interval.
+ * At the end of the recording playback pauses until it is stopped, or seeks back into the recording.
+ * Replayed values get the time they are played as their timestamps, like live values: each block's timestamp is the time it is due,
+ * and the spacing of the values within a block is divided by the speed. So at N times real time, a recording that spans an hour
+ * gets timestamps that span an hour divided by N, and they never run ahead of System.nanoTime(). At full speed, every value gets the time
+ * its block is committed. If playback falls more than MAX_LAG behind, for example because the disk is slow, it continues from the current
+ * time instead of hurrying to catch up. Timestamps never go backwards, even after seeking back.
+ *
+ * @author Farrell Farahbod
+ * @version 1.0
+ */
+public class Player implements Runnable {
+
+	static final long INDEX_INTERVAL = 100000000L; // 100ms of recorded time
+	static final long END_WAIT = 50000000L;        // ns between checks for a seek, at the end of the recording
+	static final long MAX_LAG = 100000000L;        // ns playback may fall behind before it continues from the current time
+
+	private Database db;
+	private File file;
+	private FileChannel fileChannel;
+	private ByteBuffer buffer;
+	private long bufferPosition; // file position of buffer[0]
+
+	private int[] channelIds;    // recorded channel id -> database channel id
+	private long[] indexTimestamps;
+	private long[] indexPositions;
+	private int indexSize;
+	private long firstTimestamp;
+	private long lastTimestamp;
+	private long dataStart;      // file position of the first block
+
+	private Frame frame;
+	private Thread thread;
+	private volatile boolean running;
+	private volatile double speed;
+	private volatile long seekRequest; // -1 = none
+	private long lastEmitted;          // last timestamp committed
+	private volatile long playedTime;  // recorded time of the last committed block, since the start of the recording
+	private long framesPlayed;
+	private long samplesPlayed;
+
+	/**
+	 * Open a recording and index it. Channels are added to the database. Call start() to begin playback.
+	 *
+	 * @param db		The database
+	 * @param file		File made by the Recorder
+	 * @throws IOException	If the file can not be read, or is not a recording
+	 */
+	public Player(Database db, File file) throws IOException {
+		this.db = db;
+		this.file = file;
+		this.fileChannel = new RandomAccessFile(file, "r").getChannel();
+		this.buffer = ByteBuffer.allocateDirect(1 << 20);
+		this.buffer.limit(0); // nothing has been read yet
+		this.frame = new Frame();
+		this.speed = 1;
+		this.seekRequest = -1;
+
+		// header
+		if(!fill(0, 12) || buffer.getInt() != Recorder.MAGIC || buffer.getInt() != Recorder.VERSION)
+			throw new IOException(file.getName() + " is not a recording.");
+		int channelCount = buffer.getInt();
+		channelIds = new int[channelCount];
+		for(int i = 0; i < channelCount; i++)
+			channelIds[i] = db.addChannel(getName());
+		dataStart = position();
+
+		buildIndex();
+		System.out.println("Opened " + file.getAbsolutePath() + ": " + channelIds.length + " channels, " + (lastTimestamp - firstTimestamp) / 1000000000.0 + " seconds.");
+	}
+
+	/**
+	 * Scan every block of the file. Records the sparse index and defines all channels, so seeking never skips a channel definition.
+	 */
+	private void buildIndex() throws IOException {
+		List<long[]> index = new ArrayList<long[]>();
+		long position = dataStart;
+		firstTimestamp = -1;
+		lastTimestamp = -1;
+		long nextIndexTimestamp = Long.MIN_VALUE;
+
+		while(true) {
+			if(!fill(position, 4))
+				break;
+			int n = buffer.getInt();
+			if(n == Recorder.CHANNEL_BLOCK) {
+				if(!fill(position + 4, 6))
+					break;
+				int id = buffer.getInt();
+				int length = buffer.getShort() & 0xFFFF;
+				if(!fill(position + 10, length))
+					break;
+				defineChannel(id, getBytes(length));
+				position += 10 + length;
+			} else if(n > 0) {
+				if(!fill(position + 4, 8) || position + 12 + (n * 10L) > fileChannel.size())
+					break; // truncated block at the end of the file
+				long timestamp = buffer.getLong();
+				if(firstTimestamp == -1)
+					firstTimestamp = timestamp;
+				lastTimestamp = timestamp;
+				if(timestamp >= nextIndexTimestamp) {
+					index.add(new long[] {timestamp, position});
+					nextIndexTimestamp = timestamp + INDEX_INTERVAL;
+				}
+				position += 12 + (n * 10L);
+			} else {
+				break; // corrupt
+			}
+		}
+
+		indexSize = index.size();
+		indexTimestamps = new long[indexSize];
+		indexPositions = new long[indexSize];
+		for(int i = 0; i < indexSize; i++) {
+			indexTimestamps[i] = index.get(i)[0];
+			indexPositions[i] = index.get(i)[1];
+		}
+	}
+
+	private void defineChannel(int id, String name) {
+		if(id >= channelIds.length) {
+			int[] newIds = new int[id + 1];
+			System.arraycopy(channelIds, 0, newIds, 0, channelIds.length);
+			channelIds = newIds;
+		}
+		channelIds[id] = db.addChannel(name);
+	}
+
+	/**
+	 * Start playback from the beginning.
+	 */
+	public void start() {
+		running = true;
+		thread = new Thread(this, "Player");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stop playback and close the file.
+	 */
+	public void stop() {
+		running = false;
+		try {
+			thread.join();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @param speed		1 for real time, N for N times real time, or 0 for as fast as possible
+	 */
+	public void setSpeed(double speed) {
+		this.speed = speed;
+	}
+
+	/**
+	 * Continue playback from a point in the recording.
+	 *
+	 * @param nanoseconds	Time since the start of the recording
+	 */
+	public void seek(long nanoseconds) {
+		seekRequest = Math.max(0, nanoseconds);
+		playedTime = Math.min(seekRequest, getDuration());
+	}
+
+	/**
+	 * @return		Time since the start of the recording of the values played last, in nanoseconds
+	 */
+	public long getPosition() {
+		return playedTime;
+	}
+
+	/**
+	 * @return		Length of the recording, in nanoseconds
+	 */
+	public long getDuration() {
+		return (firstTimestamp == -1) ? 0 : lastTimestamp - firstTimestamp;
+	}
+
+	/**
+	 * The playback thread.
+	 */
+	@Override
+	public void run() {
+		long startTime = System.nanoTime();
+		try {
+			long position = dataStart;
+			long wallStart = 0;      // when pacing was last (re)started
+			long recordedStart = -1; // recorded timestamp at that time
+			double pacedSpeed = 0;
+			lastEmitted = Long.MIN_VALUE;
+
+			while(running) {
+				// handle seeking: find the last indexed block at or before the requested time, then skip forward
+				long seek = seekRequest;
+				if(seek != -1) {
+					seekRequest = -1;
+					long target = firstTimestamp + seek;
+					int i = findIndexEntry(target);
+					position = (i == -1) ? dataStart : indexPositions[i];
+					while(fill(position, 12)) {
+						int n = buffer.getInt();
+						if(n > 0 && buffer.getLong() >= target)
+							break;
+						position = skipBlock(position, n);
+					}
+					recordedStart = -1;
+				}
+
+				if(!fill(position, 4)) {
+					waitAtEnd(startTime); // end of file
+					continue;
+				}
+				int n = buffer.getInt();
+				if(n == Recorder.CHANNEL_BLOCK) {
+					position = skipBlock(position, n); // already defined while indexing
+					continue;
+				} else if(n <= 0 || !fill(position + 4, 8 + (n * 10))) {
+					waitAtEnd(startTime); // corrupt or truncated
+					continue;
+				}
+
+				long blockTimestamp = buffer.getLong();
+				int channelsStart = buffer.position();
+				int timestampsStart = channelsStart + (n * 2);
+				int valuesStart = timestampsStart + (n * 4);
+
+				// wait until it is time to play the block
+				double speed = this.speed;
+				long now = System.nanoTime();
+				if(speed != pacedSpeed || recordedStart == -1) {
+					wallStart = now;
+					recordedStart = blockTimestamp;
+					pacedSpeed = speed;
+				}
+				long due = now;
+				if(speed > 0) {
+					due = wallStart + (long) ((blockTimestamp - recordedStart) / speed);
+					if(now - due > MAX_LAG) {
+						wallStart = now; // fell behind, continue from now
+						recordedStart = blockTimestamp;
+						due = now;
+					} else if(due > now) {
+						LockSupport.parkNanos(due - now);
+					}
+				}
+				due = Math.max(due, lastEmitted + 1); // timestamps never go backwards
+
+				// read the block into the frame, timestamped with the time it is played
+				frame.clear();
+				for(int i = 0; i < n; i++) {
+					int channel = channelIds[buffer.getShort(channelsStart + (i * 2)) & 0xFFFF];
+					long offset = buffer.getInt(timestampsStart + (i * 4));
+					long timestamp = (speed > 0) ? due + (long) (offset / speed) : due;
+					frame.add(channel, buffer.getInt(valuesStart + (i * 4)), timestamp);
+				}
+				position += 12 + (n * 10L);
+
+				db.commitFrame(frame);
+				lastEmitted = frame.timestamps[n - 1];
+				if(seekRequest == -1)
+					playedTime = blockTimestamp - firstTimestamp;
+				framesPlayed++;
+				samplesPlayed += n;
+			}
+		} catch(Exception e) {
+			System.err.println("Error playing " + file.getAbsolutePath() + ".");
+			System.err.println(e.getClass().toString());
+		} finally {
+			try { fileChannel.close(); } catch(IOException e) {}
+		}
+
+	}
+
+	/**
+	 * Report the playback so far, then wait until playback is stopped or seeks.
+	 *
+	 * @param startTime		System.nanoTime() when playback started
+	 */
+	private void waitAtEnd(long startTime) {
+		double seconds = (System.nanoTime() - startTime) / 1000000000.0;
+		System.out.println("Playback finished: " + framesPlayed + " frames, " + samplesPlayed + " samples in " + seconds + " seconds (" + (long) (samplesPlayed / seconds) + " samples/s).");
+		while(running && seekRequest == -1)
+			LockSupport.parkNanos(END_WAIT);
+	}
+
+	/**
+	 * @param timestamp	Recorded timestamp
+	 * @return			Index of the last index entry at or before the timestamp, or -1 if there is none
+	 */
+	private int findIndexEntry(long timestamp) {
+		int low = 0;
+		int high = indexSize;
+		while(low < high) {
+			int middle = (low + high) >>> 1;
+			if(indexTimestamps[middle] <= timestamp)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low - 1;
+	}
+
+	private long skipBlock(long position, int n) throws IOException {
+		if(n == Recorder.CHANNEL_BLOCK) {
+			fill(position + 8, 2);
+			return position + 10 + (buffer.getShort() & 0xFFFF);
+		} else {
+			return position + 12 + (n * 10L);
+		}
+	}
+
+	/**
+	 * Make sure the buffer contains a range of the file, and position the buffer at the start of that range.
+	 *
+	 * @param position	File position
+	 * @param length	Number of bytes needed
+	 * @return			False if the file ends before the range does
+	 */
+	private boolean fill(long position, int length) throws IOException {
+		if(position < bufferPosition || position + length > bufferPosition + buffer.limit()) {
+			// read starting at the requested position
+			buffer.clear();
+			bufferPosition = position;
+			while(buffer.hasRemaining() && fileChannel.read(buffer, bufferPosition + buffer.position()) > 0);
+			buffer.flip();
+			if(length > buffer.limit())
+				return false;
+		}
+		buffer.position((int) (position - bufferPosition));
+		return true;
+	}
+
+	private long position() {
+		return bufferPosition + buffer.position();
+	}
+
+	private String getName() throws IOException {
+		fill(position(), 2);
+		int length = buffer.getShort() & 0xFFFF;
+		fill(position(), length);
+		return getBytes(length);
+	}
+
+	private String getBytes(int length) {
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,128 @@
+package com.farrellf.TelemetryGUI;
+
+/**
+ * Tells whether a port sends the 62-column text format or the binary protocol, and passes the bytes to the matching parser.
+ *
+ * The text format never contains a zero byte, while every binary packet ends with one (see BinaryParser).
+ * A text line is 62 printable characters followed by a line terminator, which is very unlikely to occur in binary data before its first zero.
+ * So the first zero byte means binary, and the first complete text line means text. If neither has been seen after DETECT_BYTES bytes,
+ * the port is assumed to send text. The bytes received until then are kept, and parsed once the protocol is known,
+ * so no values are lost.
+ *
+ * @author Farrell Farahbod
+ * @version 1.0
+ */
+public class ProtocolDetector {
+
+	static final int DETECT_BYTES = 4096;
+
+	/**
+	 * The protocols.
+	 */
+	public enum Protocol {UNKNOWN, TEXT, BINARY}
+
+	private TelemetryParser textParser;
+	private BinaryParser binaryParser;
+	private Protocol protocol;
+	private byte[] detectBuffer;     // bytes received before the protocol was known
+	private int detectLength;
+	private long detectTime;         // when the first of those bytes were read
+	private int printableRun;        // number of consecutive printable characters
+
+	/**
+	 * @param db			Database to add the values to
+	 * @param namespace		Namespace for the item names, or "" for the default namespace. See ChannelNameTable.
+	 */
+	public ProtocolDetector(Database db, String namespace) {
+		this.textParser = new TelemetryParser(db, namespace);
+		this.binaryParser = new BinaryParser(db, namespace);
+		this.protocol = Protocol.UNKNOWN;
+		this.detectBuffer = new byte[DETECT_BYTES];
+	}
+
+	/**
+	 * Parse a block of incoming bytes with the parser for the port's protocol, or keep them until the protocol is known.
+	 *
+	 * @param buffer	Buffer containing the bytes
+	 * @param offset	Index of the first byte
+	 * @param length	Number of bytes
+	 * @param readTime	System.nanoTime() when the bytes were read, used as the timestamp of their values
+	 */
+	public void parse(byte[] buffer, int offset, int length, long readTime) {
+		if(protocol == Protocol.UNKNOWN) {
+			protocol = detect(buffer, offset, length);
+			if(protocol == Protocol.UNKNOWN && detectLength + length > DETECT_BYTES)
+				protocol = Protocol.TEXT;
+
+			if(protocol == Protocol.UNKNOWN) {
+				// keep the bytes until the protocol is known
+				if(detectLength == 0)
+					detectTime = readTime;
+				System.arraycopy(buffer, offset, detectBuffer, detectLength, length);
+				detectLength += length;
+				return;
+			}
+
+			System.out.println("Receiving the " + (protocol == Protocol.TEXT ? "text" : "binary") + " protocol.");
+			if(detectLength > 0) {
+				parseDetected(detectBuffer, 0, detectLength, detectTime);
+				detectBuffer = null;
+			}
+		}
+
+		parseDetected(buffer, offset, length, readTime);
+	}
+
+	private void parseDetected(byte[] buffer, int offset, int length, long readTime) {
+		if(protocol == Protocol.BINARY)
+			binaryParser.parse(buffer, offset, length, readTime);
+		else
+			textParser.parse(buffer, offset, length, readTime);
+	}
+
+	/**
+	 * Bytes were lost before the next block, for example dropped by a ByteQueue. Tell the parser, or forget the bytes kept for detection.
+	 */
+	public void discontinuity() {
+		if(protocol == Protocol.BINARY) {
+			binaryParser.discontinuity();
+		} else if(protocol == Protocol.TEXT) {
+			textParser.discontinuity();
+		} else {
+			detectLength = 0;
+			printableRun = 0;
+		}
+	}
+
+	/**
+	 * Look for a zero byte, or a complete text line.
+	 *
+	 * @param buffer	Buffer containing the bytes
+	 * @param offset	Index of the first byte
+	 * @param length	Number of bytes
+	 * @return			The protocol, or UNKNOWN if neither has been seen yet
+	 */
+	private Protocol detect(byte[] buffer, int offset, int length) {
+		for(int i = offset; i < offset + length; i++) {
+			byte b = buffer[i];
+			if(b == 0)
+				return Protocol.BINARY;
+			if(b >= 0x20 && b <= 0x7E) {
+				printableRun++;
+			} else {
+				if((b == '\r' || b == '\n') && printableRun >= TelemetryParser.LINE_LENGTH)
+					return Protocol.TEXT;
+				printableRun = 0;
+			}
+		}
+		return Protocol.UNKNOWN;
+	}
+
+	/**
+	 * @return			The protocol the port sends, or UNKNOWN if not known yet
+	 */
+	public Protocol getProtocol() {
+		return protocol;
+	}
+
+}
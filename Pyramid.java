@@ -0,0 +1,185 @@
+package com.farrellf.TelemetryGUI;
+
+/**
+ * Summaries of the history of one telemetry item at several resolutions, for drawing long ranges of history quickly.
+ *
+ * Level 1 summarizes every 4 values as a bucket, level 2 every 16 values, level 3 every 64 values, etc.
+ * Each bucket holds the min, max and sum (for the mean) of its values. The bucket that the newest value belongs to is partial.
+ * Buckets are identified by their index: bucket b of level L covers values b * getBucketSize(L) through (b + 1) * getBucketSize(L) - 1.
+ *
+ * Each level is a ring buffer of up to CAPACITY buckets, so coarser levels reach further back in time:
+ * level 1 covers the most recent 16K values, and the top level covers the most recent 4G values, far longer than any session.
+ * The levels are updated as each value is added, which takes a fixed amount of work per value.
+ *
+ * A level starts with room for INITIAL_CAPACITY buckets, and doubles before its oldest bucket would be overwritten, until it holds CAPACITY.
+ * So memory grows with the history: an item with few values costs a few kB, and only the levels that have filled up take their full 64kB.
+ * A level that has grown is replaced by a new Level object, whose arrays are filled in its constructor, so a reader always sees
+ * the min, max and sum arrays of the same Level.
+ *
+ * @author Farrell Farahbod
+ * @version 1.0
+ */
+public class Pyramid {
+
+	static final int LEVELS = 10;
+	static final int LEVEL_BITS = 2;    // each level has buckets 4 times as large as the level below
+	static final int CAPACITY = 4096;   // most buckets retained per level, must be a power of two
+	static final int INITIAL_CAPACITY = 16;
+
+	/**
+	 * The buckets of one level.
+	 */
+	static class Level {
+
+		final int[] min;
+		final int[] max;
+		final long[] sum;
+		final int mask;
+
+		Level(int capacity) {
+			min = new int[capacity];
+			max = new int[capacity];
+			sum = new long[capacity];
+			mask = capacity - 1;
+		}
+
+		/**
+		 * Copy a level into a larger ring.
+		 *
+		 * @param old			The level
+		 * @param capacity		Buckets in the new ring
+		 * @param firstBucket	Index of the oldest bucket
+		 * @param endBucket		Index after the newest bucket
+		 */
+		Level(Level old, int capacity, long firstBucket, long endBucket) {
+			this(capacity);
+			for(long bucket = firstBucket; bucket < endBucket; bucket++) {
+				int from = (int) (bucket & old.mask);
+				int to = (int) (bucket & mask);
+				min[to] = old.min[from];
+				max[to] = old.max[from];
+				sum[to] = old.sum[from];
+			}
+		}
+
+	}
+
+	final Level[] levels; // [level - 1]
+	long first;           // index of the first value added, -1 if none. The oldest bucket may be partial if this is not the start of a bucket.
+
+	public Pyramid() {
+		levels = new Level[LEVELS];
+		for(int i = 0; i < LEVELS; i++)
+			levels[i] = new Level(INITIAL_CAPACITY);
+		first = -1;
+	}
+
+	/**
+	 * @param level		Level, from 1 to LEVELS
+	 * @return			Number of values summarized by each bucket of that level
+	 */
+	public static long getBucketSize(int level) {
+		return 1L << (level * LEVEL_BITS);
+	}
+
+	/**
+	 * Add a value to the buckets it belongs to.
+	 *
+	 * @param index		Index of the value
+	 * @param value		The value
+	 */
+	public void add(long index, int value) {
+		if(first == -1)
+			first = index;
+
+		for(int level = 0; level < LEVELS; level++) {
+			int shift = (level + 1) * LEVEL_BITS;
+			long bucket = index >> shift;
+			Level buckets = levels[level];
+			boolean firstOfBucket = (index & ((1L << shift) - 1)) == 0 || index == first;
+
+			// grow the ring before a bucket would be overwritten
+			long firstBucket = first >> shift;
+			if(firstOfBucket && bucket - firstBucket > buckets.mask && buckets.mask < CAPACITY - 1) {
+				buckets = new Level(buckets, (buckets.mask + 1) * 2, firstBucket, bucket);
+				levels[level] = buckets;
+			}
+
+			int slot = (int) (bucket & buckets.mask);
+			int[] levelMin = buckets.min;
+			int[] levelMax = buckets.max;
+			long[] levelSum = buckets.sum;
+
+			if(firstOfBucket) {
+				// first value of a bucket
+				levelMin[slot] = value;
+				levelMax[slot] = value;
+				levelSum[slot] = value;
+			} else {
+				if(value < levelMin[slot])
+					levelMin[slot] = value;
+				if(value > levelMax[slot])
+					levelMax[slot] = value;
+				levelSum[slot] += value;
+			}
+		}
+	}
+
+	/**
+	 * @param level		Level, from 1 to LEVELS
+	 * @param count		Number of values ever added to the channel
+	 * @return			Index of the oldest bucket still retained, or 0 if no values exist
+	 */
+	public long getOldestBucket(int level, long count) {
+		if(first == -1)
+			return 0;
+		int shift = level * LEVEL_BITS;
+		long newest = (count - 1) >> shift;
+		return Math.max(first >> shift, newest - CAPACITY + 1);
+	}
+
+	/**
+	 * Copy a range of buckets into arrays.
+	 * The range must not extend past the bucket of the newest value.
+	 * Buckets that are no longer retained are skipped, so the copied buckets always end at index length - 1 of the arrays.
+	 *
+	 * @param level			Level, from 1 to LEVELS
+	 * @param count			Number of values ever added to the channel
+	 * @param firstBucket	Index of the first bucket to copy
+	 * @param minDest		Destination for the minimum of each bucket
+	 * @param maxDest		Destination for the maximum of each bucket
+	 * @param meanDest		Destination for the mean of each bucket
+	 * @param length		Number of buckets to copy
+	 * @return				Number of buckets copied, they occupy [length - returned ... length - 1] of the arrays
+	 */
+	public int copy(int level, long count, long firstBucket, int[] minDest, int[] maxDest, int[] meanDest, int length) {
+		int shift = level * LEVEL_BITS;
+		long oldest = getOldestBucket(level, count);
+		int skipped = 0;
+		if(firstBucket < oldest) {
+			skipped = (int) Math.min(length, oldest - firstBucket);
+			firstBucket = oldest;
+		}
+
+		// copy in at most two pieces, since the range may wrap around the end of the ring
+		Level buckets = levels[level - 1];
+		int position = skipped;
+		while(position < length) {
+			int start = (int) (firstBucket & buckets.mask);
+			int n = Math.min(length - position, buckets.mask + 1 - start);
+			System.arraycopy(buckets.min, start, minDest, position, n);
+			System.arraycopy(buckets.max, start, maxDest, position, n);
+			for(int i = 0; i < n; i++) {
+				// the oldest and newest buckets may be partial
+				long bucket = firstBucket + i;
+				long values = Math.min(count, (bucket + 1) << shift) - Math.max(first, bucket << shift);
+				meanDest[position + i] = (int) (buckets.sum[start + i] / Math.max(1, values));
+			}
+			position += n;
+			firstBucket += n;
+		}
+
+		return length - skipped;
+	}
+
+}
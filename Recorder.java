@@ -0,0 +1,321 @@
+package com.farrellf.TelemetryGUI;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Records every frame committed to the Database into an append-only file.
+ *
+ * The ingest thread only copies each frame into a FrameQueue. A separate thread encodes the frames and writes them with a FileChannel,
+ * so recording adds no file I/O to the ingest thread. If the disk can not keep up, frames are dropped and counted.
+ * Each ingest thread (one per port) gets its own FrameQueue the first time it commits a frame, so the ports never wait for each other.
+ * The recording thread merges the queues, always writing the queued frame with the oldest timestamp first.
+ * stop() waits for ingest threads that are still queueing a frame, so no frame is queued after the last drain without being counted as dropped.
+ *
+ * File format (all numbers are big-endian):
+ *
+ *   Header:
+ *     int    MAGIC
+ *     int    VERSION
+ *     int    channel count
+ *     for each channel, in id order:
+ *       short  name length
+ *       bytes  name (UTF-8)
+ *
+ *   Followed by any number of blocks. A block starts with an int:
+ *
+ *   Frame block (int > 0 is the number of samples, n):
+ *     long   timestamp of the first sample, System.nanoTime() of the recording machine
+ *     n * short  channel ids
+ *     n * int    timestamp of each sample, relative to the first
+ *     n * int    values
+ *
+ *   Channel block (int == CHANNEL_BLOCK), for channels added after the header was written:
+ *     int    channel id
+ *     short  name length
+ *     bytes  name (UTF-8)
+ *
+ * Frame blocks are columnar, so a sample costs 10 bytes.
+ *
+ * @author Farrell Farahbod
+ * @version 1.0
+ */
+public class Recorder implements FrameListener, Runnable {
+
+	static final int MAGIC = 0x52545652; // "RTVR"
+	static final int VERSION = 1;
+	static final int CHANNEL_BLOCK = -1;
+	static final int MAX_FRAME_SIZE = 4096; // larger frames are split into several blocks
+	static final int QUEUE_SAMPLES = 1 << 19; // per ingest thread, seconds of telemetry if the disk stalls
+	static final int QUEUE_FRAMES = 1 << 15;
+
+	/**
+	 * The queue of one ingest thread.
+	 */
+	private static class Producer {
+
+		final Thread thread;
+		final FrameQueue queue;
+		volatile boolean committing; // true while the thread is in frameCommitted()
+		volatile long lateFrames;    // frames committed after stop() was called, only written by the thread
+
+		Producer(Thread thread) {
+			this.thread = thread;
+			this.queue = new FrameQueue(QUEUE_SAMPLES, QUEUE_FRAMES);
+		}
+
+	}
+
+	private Database db;
+	private File file;
+	private FileChannel fileChannel;
+	private ByteBuffer buffer;
+	private volatile Producer[] producers;  // copied on write, guarded by this
+	private final ThreadLocal<Producer> ownProducer;
+	private long removedDroppedFrames;      // dropped by producers that have finished, guarded by this
+	private Frame frame;
+	private int channelCount; // number of channels whose names have been written
+	private Thread thread;
+	private volatile boolean running;
+	private volatile boolean accepting; // false once stop() is called, checked by frameCommitted()
+	private long bytesWritten;
+
+	/**
+	 * Create a recorder. Call start() to begin recording.
+	 *
+	 * @param db		The database
+	 * @param file		File to create. It is overwritten if it exists.
+	 */
+	public Recorder(Database db, File file) {
+		this.db = db;
+		this.file = file;
+		this.buffer = ByteBuffer.allocateDirect(1 << 20);
+		this.producers = new Producer[0];
+		this.ownProducer = new ThreadLocal<Producer>() {
+			@Override
+			protected Producer initialValue() {
+				return addProducer(Thread.currentThread());
+			}
+		};
+		this.frame = new Frame();
+	}
+
+	/**
+	 * Create the file, write the header, and start recording frames.
+	 *
+	 * @throws IOException	If the file can not be created
+	 */
+	public void start() throws IOException {
+		fileChannel = new RandomAccessFile(file, "rw").getChannel();
+		fileChannel.truncate(0);
+
+		// header
+		channelCount = db.getChannelCount();
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putInt(channelCount);
+		for(int i = 0; i < channelCount; i++) {
+			byte[] name = encodeName(db.getChannelName(i));
+			ensureSpace(2 + name.length);
+			putName(name);
+		}
+
+		running = true;
+		accepting = true;
+		db.addFrameListener(this);
+		thread = new Thread(this, "Recorder");
+		thread.setDaemon(true);
+		thread.start();
+		System.out.println("Recording to " + file.getAbsolutePath());
+	}
+
+	/**
+	 * Stop recording, write any queued frames, and close the file.
+	 */
+	public void stop() {
+		accepting = false;
+		db.removeFrameListener(this);
+
+		// an ingest thread may have called frameCommitted() just before the listener was removed, let it finish queueing
+		for(Producer producer : producers)
+			while(producer.committing)
+				Thread.yield();
+
+		running = false;
+		try {
+			thread.join();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		System.out.println("Recording stopped. " + bytesWritten + " bytes written to " + file.getAbsolutePath() + ", " + getDroppedFrames() + " frames dropped.");
+	}
+
+	/**
+	 * Called on the ingest threads: just queue the frame, in the calling thread's own queue.
+	 * A frame committed after stop() was called is counted as dropped instead, since the queues may already have been drained.
+	 */
+	@Override
+	public void frameCommitted(Frame frame) {
+		Producer producer = ownProducer.get();
+		producer.committing = true; // set before checking accepting, so stop() either waits for this frame or it is counted here
+		if(accepting)
+			producer.queue.offer(frame);
+		else
+			producer.lateFrames++;
+		producer.committing = false;
+	}
+
+	/**
+	 * Give an ingest thread its own queue. Called once per thread.
+	 *
+	 * @param thread	The ingest thread
+	 * @return			Its producer
+	 */
+	private synchronized Producer addProducer(Thread thread) {
+		Producer producer = new Producer(thread);
+		Producer[] newProducers = Arrays.copyOf(producers, producers.length + 1);
+		newProducers[producers.length] = producer;
+		producers = newProducers;
+		return producer;
+	}
+
+	/**
+	 * Forget the queues of ingest threads that have finished, once they are empty.
+	 */
+	private synchronized void removeFinishedProducers() {
+		int count = 0;
+		Producer[] newProducers = new Producer[producers.length];
+		for(Producer producer : producers) {
+			if(!producer.thread.isAlive() && producer.queue.isEmpty())
+				removedDroppedFrames += producer.queue.getDroppedFrames() + producer.lateFrames;
+			else
+				newProducers[count++] = producer;
+		}
+		if(count != producers.length)
+			producers = Arrays.copyOf(newProducers, count);
+	}
+
+	/**
+	 * Remove the queued frame with the oldest timestamp, from whichever queue holds it.
+	 *
+	 * @param dest		Frame to copy the values into
+	 * @return			True if a frame was removed, false if every queue was empty
+	 */
+	private boolean pollOldest(Frame dest) {
+		FrameQueue oldest = null;
+		long oldestTimestamp = Long.MAX_VALUE;
+		for(Producer producer : producers) {
+			long timestamp = producer.queue.peekTimestamp();
+			if(timestamp < oldestTimestamp || (oldest == null && !producer.queue.isEmpty())) {
+				oldest = producer.queue;
+				oldestTimestamp = timestamp;
+			}
+		}
+		return oldest != null && oldest.poll(dest);
+	}
+
+	/**
+	 * The recording thread: periodically encode all queued frames and write them to the file.
+	 */
+	@Override
+	public void run() {
+		try {
+			while(true) {
+				boolean stopping = !running; // read before draining, so no frames are left behind
+
+				while(pollOldest(frame))
+					writeFrame(frame);
+				flush();
+				removeFinishedProducers();
+
+				if(stopping)
+					break;
+				Thread.sleep(2);
+			}
+		} catch(Exception e) {
+			System.err.println("Error writing recording to " + file.getAbsolutePath() + ".");
+			System.err.println(e.getClass().toString());
+			db.removeFrameListener(this);
+		} finally {
+			try { fileChannel.close(); } catch(IOException e) {}
+		}
+	}
+
+	private void writeFrame(Frame frame) throws IOException {
+		// define any channels that were added since the header was written
+		while(channelCount < db.getChannelCount()) {
+			byte[] name = encodeName(db.getChannelName(channelCount));
+			ensureSpace(10 + name.length);
+			buffer.putInt(CHANNEL_BLOCK);
+			buffer.putInt(channelCount);
+			putName(name);
+			channelCount++;
+		}
+
+		// split the frame if it is too large, or if it spans so much time that the relative timestamps would not fit in an int
+		int start = 0;
+		while(start < frame.size) {
+			long firstTimestamp = frame.timestamps[start];
+			int end = start + 1;
+			while(end < frame.size && end - start < MAX_FRAME_SIZE && frame.timestamps[end] - firstTimestamp <= Integer.MAX_VALUE)
+				end++;
+
+			int n = end - start;
+			ensureSpace(12 + (n * 10));
+			buffer.putInt(n);
+			buffer.putLong(firstTimestamp);
+			for(int i = start; i < end; i++)
+				buffer.putShort((short) frame.channels[i]);
+			for(int i = start; i < end; i++)
+				buffer.putInt((int) (frame.timestamps[i] - firstTimestamp));
+			for(int i = start; i < end; i++)
+				buffer.putInt(frame.values[i]);
+
+			start = end;
+		}
+	}
+
+	private byte[] encodeName(String name) {
+		return name.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private void putName(byte[] name) {
+		buffer.putShort((short) name.length);
+		buffer.put(name);
+	}
+
+	private void ensureSpace(int bytes) throws IOException {
+		if(buffer.remaining() < bytes)
+			flush();
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while(buffer.hasRemaining())
+			bytesWritten += fileChannel.write(buffer);
+		buffer.clear();
+	}
+
+	/**
+	 * @return		The file being recorded to
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return		Number of frames dropped because the recording thread could not keep up, or because they were committed while stopping
+	 */
+	public synchronized long getDroppedFrames() {
+		long dropped = removedDroppedFrames;
+		for(Producer producer : producers)
+			dropped += producer.queue.getDroppedFrames() + producer.lateFrames;
+		return dropped;
+	}
+
+}
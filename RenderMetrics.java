@@ -0,0 +1,62 @@
+package com.farrellf.TelemetryGUI;
+
+import java.lang.management.ManagementFactory;
+import javax.management.ObjectName;
+
+/**
+ * Frame times of the event dispatch thread, published as a JMX MBean so they can be watched with JConsole during long runs.
+ *
+ * The RenderScheduler owns one of these. It times each of its ticks, and each LineGraph times its own painting,
+ * since a LineGraph only requests a repaint when it is rendered and paints later.
+ *
+ * @author Farrell Farahbod
+ * @version 1.0
+ */
+public class RenderMetrics implements RenderMetricsMXBean {
+
+	static final String OBJECT_NAME = "com.farrellf.TelemetryGUI:type=RenderMetrics";
+
+	final Histogram tickTime;
+	final Histogram lineGraphPaintTime;
+	volatile int tickPeriod;
+
+	public RenderMetrics() {
+		tickTime = new Histogram();
+		lineGraphPaintTime = new Histogram();
+		tickPeriod = 0;
+	}
+
+	/**
+	 * Register with the platform MBean server, so JConsole can see the metrics.
+	 */
+	public void register() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+		} catch(Exception e) {
+			System.err.println("Unable to register " + OBJECT_NAME + ".");
+			System.err.println(e.getClass().toString());
+		}
+	}
+
+	@Override
+	public Histogram.Summary getTickTimeNanoseconds() {
+		return tickTime.getSummary();
+	}
+
+	@Override
+	public Histogram.Summary getLineGraphPaintTimeNanoseconds() {
+		return lineGraphPaintTime.getSummary();
+	}
+
+	@Override
+	public int getTickPeriodMilliseconds() {
+		return tickPeriod;
+	}
+
+	@Override
+	public void reset() {
+		tickTime.reset();
+		lineGraphPaintTime.reset();
+	}
+
+}
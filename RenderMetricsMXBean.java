@@ -0,0 +1,31 @@
+package com.farrellf.TelemetryGUI;
+
+/**
+ * Management interface for RenderMetrics, shown by JConsole under com.farrellf.TelemetryGUI / RenderMetrics.
+ *
+ * @author Farrell Farahbod
+ * @version 1.0
+ */
+public interface RenderMetricsMXBean {
+
+	/**
+	 * @return		Time the event dispatch thread spends on each RenderScheduler tick, including updating the main window, in nanoseconds
+	 */
+	public Histogram.Summary getTickTimeNanoseconds();
+
+	/**
+	 * @return		Time the event dispatch thread spends painting a LineGraph, in nanoseconds
+	 */
+	public Histogram.Summary getLineGraphPaintTimeNanoseconds();
+
+	/**
+	 * @return		Current period of the RenderScheduler timer, in milliseconds
+	 */
+	public int getTickPeriodMilliseconds();
+
+	/**
+	 * Set the histograms back to zero.
+	 */
+	public void reset();
+
+}
@@ -0,0 +1,190 @@
+package com.farrellf.TelemetryGUI;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.swing.Timer;
+
+/**
+ * Updates every window from one timer, and only updates the ones whose values have changed.
+ *
+ * On each tick, the number of values in each channel is compared with the previous tick.
+ * A Renderable is only rendered if one of its channels has new values, and if it is on screen.
+ *
+ * The tick rate adapts:
+ *   50Hz while values are arriving for something on screen.
+ *   IDLE_PERIOD after IDLE_TICKS ticks without rendering, for example when the serial link is idle or the window is minimized.
+ *   Slower, down to MAX_PERIOD, when the event dispatch thread falls behind (ticks arrive late because painting takes too long.)
+ *
+ * The time spent on each tick is recorded in the scheduler's RenderMetrics.
+ *
+ * @author Farrell Farahbod
+ * @version 1.0
+ */
+public class RenderScheduler implements ActionListener {
+
+	static final int PERIOD = 20;       // ms, 50Hz
+	static final int IDLE_PERIOD = 100; // ms, 10Hz
+	static final int MAX_PERIOD = 100;  // ms, slowest rate when the event dispatch thread is busy
+	static final int IDLE_TICKS = 25;
+
+	private Database db;
+	private List<Client> clients;
+	private Timer timer;
+	private long[] counts;   // number of values in each channel, at this tick
+	private int idleTicks;
+	private long lastTick;
+	private RenderMetrics metrics;
+
+	/**
+	 * A Renderable, and the number of values in each of its channels when it was last rendered.
+	 */
+	private static class Client {
+		Renderable renderable;
+		int[] channels;
+		long[] counts;
+		boolean invalid; // render on the next tick even if no values changed
+
+		Client(Renderable renderable) {
+			this.renderable = renderable;
+			this.channels = new int[0];
+			this.counts = new long[0];
+			this.invalid = true;
+		}
+	}
+
+	/**
+	 * Create the scheduler and start its timer.
+	 *
+	 * @param db	Database containing the values
+	 */
+	public RenderScheduler(Database db) {
+		this.db = db;
+		this.clients = new CopyOnWriteArrayList<Client>();
+		this.counts = new long[0];
+		this.idleTicks = 0;
+		this.lastTick = System.nanoTime();
+		this.metrics = new RenderMetrics();
+		this.metrics.tickPeriod = PERIOD;
+		this.timer = new Timer(PERIOD, this);
+		this.timer.setCoalesce(true);
+		this.timer.start();
+	}
+
+	/**
+	 * @return		Frame times of the event dispatch thread
+	 */
+	public RenderMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Start updating something. It is rendered on the next tick.
+	 *
+	 * @param renderable	Thing to update
+	 */
+	public void add(Renderable renderable) {
+		clients.add(new Client(renderable));
+	}
+
+	/**
+	 * Stop updating something.
+	 *
+	 * @param renderable	Thing to stop updating
+	 */
+	public void remove(Renderable renderable) {
+		for(Client client : clients)
+			if(client.renderable == renderable)
+				clients.remove(client);
+	}
+
+	/**
+	 * Render something on the next tick even if its values have not changed, for example when its settings change.
+	 *
+	 * @param renderable	Thing to render
+	 */
+	public void invalidate(Renderable renderable) {
+		for(Client client : clients)
+			if(client.renderable == renderable)
+				client.invalid = true;
+		if(idleTicks >= IDLE_TICKS)
+			timer.restart(); // do not wait for a slow idle tick
+	}
+
+	/**
+	 * Timer tick: render everything with new values.
+	 */
+	@Override
+	public void actionPerformed(ActionEvent e) {
+		long now = System.nanoTime();
+		long elapsed = (now - lastTick) / 1000000;
+		lastTick = now;
+
+		// number of values in each channel
+		int channelCount = db.getChannelCount();
+		if(counts.length != channelCount)
+			counts = new long[channelCount];
+		for(int i = 0; i < channelCount; i++)
+			counts[i] = db.getListSize(i);
+
+		boolean rendered = false;
+		for(Client client : clients) {
+			if(!isChanged(client))
+				continue;
+			if(client.renderable.isOnScreen()) {
+				client.invalid = false;
+				client.renderable.render();
+				rendered = true;
+			} else {
+				client.invalid = true; // render it when it is shown again
+			}
+		}
+
+		// adapt the tick rate
+		int delay = timer.getDelay();
+		boolean wasIdle = idleTicks >= IDLE_TICKS;
+		idleTicks = rendered ? 0 : idleTicks + 1; // a hidden window that is only marked invalid lets the tick slow down
+		if(idleTicks >= IDLE_TICKS)
+			delay = IDLE_PERIOD;
+		else if(wasIdle)
+			delay = PERIOD; // values are arriving again
+		else if(elapsed > delay * 3 / 2)
+			delay = Math.min(MAX_PERIOD, delay + PERIOD / 4); // falling behind
+		else
+			delay = Math.max(PERIOD, delay - 1);
+		if(delay != timer.getDelay()) {
+			timer.setDelay(delay);
+			metrics.tickPeriod = delay;
+		}
+
+		metrics.tickTime.record(System.nanoTime() - now);
+	}
+
+	/**
+	 * @param client	A client
+	 * @return			True if the client must be rendered: it is invalid, or one of its channels has new values since it was last rendered
+	 */
+	private boolean isChanged(Client client) {
+		int[] channels = client.renderable.getChannels();
+		if(channels != client.channels) {
+			if(!Arrays.equals(channels, client.channels)) {
+				client.counts = new long[channels.length];
+				client.invalid = true;
+			}
+			client.channels = channels;
+		}
+
+		boolean changed = client.invalid;
+		for(int i = 0; i < channels.length; i++) {
+			long count = (channels[i] < counts.length) ? counts[channels[i]] : 0;
+			if(count != client.counts[i]) {
+				client.counts[i] = count;
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+}
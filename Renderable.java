@@ -0,0 +1,26 @@
+package com.farrellf.TelemetryGUI;
+
+/**
+ * Something on screen that shows values from the Database, and is updated by the RenderScheduler.
+ *
+ * @author Farrell Farahbod
+ * @version 1.0
+ */
+public interface Renderable {
+
+	/**
+	 * @return		Ids of the channels shown. render() is only called when one of them has new values.
+	 */
+	public int[] getChannels();
+
+	/**
+	 * @return		True if anything is visible on screen, false if the window is hidden or minimized
+	 */
+	public boolean isOnScreen();
+
+	/**
+	 * Update the display with the new values. Called on the event dispatch thread.
+	 */
+	public void render();
+
+}
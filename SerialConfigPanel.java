@@ -8,14 +8,35 @@ import javax.swing.JPanel;
 import java.awt.Font;
 import java.awt.GridBagConstraints;
 import java.awt.Insets;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
 
 import javax.swing.JButton;
 import javax.swing.JComboBox;
+import javax.swing.JFileChooser;
+import javax.swing.JSlider;
+import javax.swing.Timer;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.filechooser.FileNameExtensionFilter;
 
 /**
- * A JPanel to allow the user to configure the RS232 link.
+ * A JPanel to allow the user to configure the RS232 links, record or replay telemetry, and open the LatencyWindow.
+ * 
+ * Several ports can be connected, one at a time with the Connect button. Each port gets its own SerialPortListener and thread.
+ * The first port uses the default namespace, so its items keep their plain names and existing configuration files still work.
+ * Items from each later port are prefixed with the port's name, for example "ttyUSB1:AngleX". See ChannelNameTable.
+ * The overflow policy of a port's ByteQueue is chosen when it is connected.
+ * While a recording is replayed, the Position slider follows the playback, and dragging it seeks to that point of the recording.
+ * 
+ * The Share button starts a TelemetryServer, so other copies of this program can watch by connecting to "tcp:thishost".
  * 
  * @author  Farrell Farahbod
  * @version 1.0
@@ -27,13 +48,35 @@ public class SerialConfigPanel extends JPanel implements MouseListener {
 	JLabel baudRateLabel;
 	JComboBox baudRateSelection;
 	JButton applyButton;
+	JButton recordButton;
+	JButton replayButton;
+	JComboBox<String> replaySpeedSelection;
+	JLabel replayPositionLabel;
+	JSlider replayPosition;
+	JLabel replayTimeLabel;
+	Timer replayTimer;
+	boolean updatingReplayPosition; // true while the slider is moved to follow the playback, rather than by the user
+	JButton latencyButton;
+	JLabel overflowLabel;
+	JComboBox<ByteQueue.Policy> overflowSelection;
+	JLabel connectionsLabel;
+	JButton shareButton;
+	LatencyWindow latencyWindow;
 	String[] baudRates;
-	SerialPortListener rs232;
-	Thread rs232thread;
+	String[] replaySpeeds;
+	List<String> ports;        // connected ports
+	List<String> namespaces;   // namespace of each connected port
+	Database db;
+	Recorder recorder;
+	Player player;
+	TelemetryServer server;
+	
+	static final int REPLAY_UPDATE_PERIOD = 250; // ms between updates of the replay position
 	
 	public SerialConfigPanel(Database db) {
-		rs232 = new SerialPortListener(db);
-		rs232thread = new Thread(rs232);
+		this.db = db;
+		ports = new ArrayList<String>();
+		namespaces = new ArrayList<String>();
 		
 		setLayout(new GridBagLayout());
 		
@@ -47,7 +90,7 @@ public class SerialConfigPanel extends JPanel implements MouseListener {
 		gbc.gridy = 0;
 		add(portLabel, gbc);
 		
-		portString = new JComboBox(rs232.getSerialPorts());
+		portString = new JComboBox(SerialPortListener.getSerialPorts());
 		portString.setEditable(true);
 		gbc.anchor = GridBagConstraints.CENTER;
 		gbc.insets = new Insets(0, 0, 10, 5);
@@ -73,7 +116,7 @@ public class SerialConfigPanel extends JPanel implements MouseListener {
 		gbc.gridy = 0;
 		add(baudRateSelection, gbc);
 		
-		applyButton = new JButton("Apply");
+		applyButton = new JButton("Connect");
 		applyButton.setFont(new Font("Dialog", Font.BOLD, 12));
 		applyButton.addMouseListener(this);
 		gbc.anchor = GridBagConstraints.CENTER;
@@ -82,29 +125,297 @@ public class SerialConfigPanel extends JPanel implements MouseListener {
 		gbc.gridy = 0;
 		add(applyButton, gbc);
 		
-		// auto connect if only one serial port exists
-		if(rs232.getSerialPorts().length == 1) {
-			if(rs232.establishConnection((String) rs232.getSerialPorts()[0], Integer.parseInt((String) baudRateSelection.getSelectedItem()))) {
-				rs232thread.start();
-				applyButton.setEnabled(false);
+		recordButton = new JButton("Record");
+		recordButton.setFont(new Font("Dialog", Font.BOLD, 12));
+		recordButton.addMouseListener(this);
+		gbc.anchor = GridBagConstraints.CENTER;
+		gbc.insets = new Insets(0, 5, 10, 5);
+		gbc.gridx = 5;
+		gbc.gridy = 0;
+		add(recordButton, gbc);
+		
+		replayButton = new JButton("Replay...");
+		replayButton.setFont(new Font("Dialog", Font.BOLD, 12));
+		replayButton.addMouseListener(this);
+		gbc.anchor = GridBagConstraints.CENTER;
+		gbc.insets = new Insets(0, 30, 10, 5);
+		gbc.gridx = 6;
+		gbc.gridy = 0;
+		add(replayButton, gbc);
+		
+		replaySpeeds = new String[] {"1x", "2x", "10x", "100x", "Max"};
+		replaySpeedSelection = new JComboBox<String>(replaySpeeds);
+		replaySpeedSelection.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				if(player != null)
+					player.setSpeed(getReplaySpeed());
+			}
+		});
+		gbc.anchor = GridBagConstraints.CENTER;
+		gbc.insets = new Insets(0, 0, 10, 5);
+		gbc.gridx = 7;
+		gbc.gridy = 0;
+		add(replaySpeedSelection, gbc);
+		
+		latencyButton = new JButton("Latency...");
+		latencyButton.setFont(new Font("Dialog", Font.BOLD, 12));
+		latencyButton.addMouseListener(this);
+		gbc.anchor = GridBagConstraints.CENTER;
+		gbc.insets = new Insets(0, 30, 10, 5);
+		gbc.gridx = 8;
+		gbc.gridy = 0;
+		add(latencyButton, gbc);
+		
+		overflowLabel = new JLabel("Overflow:");
+		overflowLabel.setFont(new Font("Dialog", Font.BOLD, 12));
+		gbc.anchor = GridBagConstraints.EAST;
+		gbc.insets = new Insets(0, 0, 10, 5);
+		gbc.gridx = 0;
+		gbc.gridy = 1;
+		add(overflowLabel, gbc);
+		
+		overflowSelection = new JComboBox<ByteQueue.Policy>(new ByteQueue.Policy[] {ByteQueue.Policy.DROP_OLDEST, ByteQueue.Policy.DROP_NEWEST, ByteQueue.Policy.BLOCK});
+		overflowSelection.setToolTipText("What to do with received bytes if the parser falls behind");
+		gbc.anchor = GridBagConstraints.WEST;
+		gbc.insets = new Insets(0, 0, 10, 5);
+		gbc.gridx = 1;
+		gbc.gridy = 1;
+		add(overflowSelection, gbc);
+		
+		connectionsLabel = new JLabel("Not connected");
+		connectionsLabel.setFont(new Font("Dialog", Font.PLAIN, 12));
+		gbc.anchor = GridBagConstraints.WEST;
+		gbc.insets = new Insets(0, 30, 10, 5);
+		gbc.gridx = 2;
+		gbc.gridy = 1;
+		gbc.gridwidth = 6;
+		add(connectionsLabel, gbc);
+		
+		shareButton = new JButton("Share");
+		shareButton.setFont(new Font("Dialog", Font.BOLD, 12));
+		shareButton.setToolTipText("Stream the telemetry to other copies of this program, on TCP port " + TelemetryServer.DEFAULT_PORT);
+		shareButton.addMouseListener(this);
+		gbc.anchor = GridBagConstraints.CENTER;
+		gbc.insets = new Insets(0, 30, 10, 5);
+		gbc.gridx = 8;
+		gbc.gridy = 1;
+		gbc.gridwidth = 1;
+		add(shareButton, gbc);
+		
+		replayPositionLabel = new JLabel("Position:");
+		replayPositionLabel.setFont(new Font("Dialog", Font.BOLD, 12));
+		gbc.anchor = GridBagConstraints.EAST;
+		gbc.insets = new Insets(0, 0, 10, 5);
+		gbc.gridx = 0;
+		gbc.gridy = 2;
+		add(replayPositionLabel, gbc);
+		
+		replayPosition = new JSlider(0, 0, 0); // milliseconds since the start of the recording
+		replayPosition.setEnabled(false);
+		replayPosition.addChangeListener(new ChangeListener() {
+			@Override
+			public void stateChanged(ChangeEvent e) {
+				if(updatingReplayPosition || player == null)
+					return;
+				updateReplayTime();
+				if(!replayPosition.getValueIsAdjusting())
+					player.seek(replayPosition.getValue() * 1000000L);
+			}
+		});
+		gbc.anchor = GridBagConstraints.CENTER;
+		gbc.fill = GridBagConstraints.HORIZONTAL;
+		gbc.insets = new Insets(0, 0, 10, 5);
+		gbc.gridx = 1;
+		gbc.gridy = 2;
+		gbc.gridwidth = 7;
+		add(replayPosition, gbc);
+		
+		replayTimeLabel = new JLabel(formatTime(0) + " / " + formatTime(0));
+		replayTimeLabel.setFont(new Font("Dialog", Font.PLAIN, 12));
+		gbc.anchor = GridBagConstraints.CENTER;
+		gbc.fill = GridBagConstraints.NONE;
+		gbc.insets = new Insets(0, 30, 10, 5);
+		gbc.gridx = 8;
+		gbc.gridy = 2;
+		gbc.gridwidth = 1;
+		add(replayTimeLabel, gbc);
+		
+		replayTimer = new Timer(REPLAY_UPDATE_PERIOD, new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				if(player == null || replayPosition.getValueIsAdjusting())
+					return;
+				updatingReplayPosition = true;
+				replayPosition.setValue((int) (player.getPosition() / 1000000));
+				updatingReplayPosition = false;
+				updateReplayTime();
 			}
+		});
+		
+		// auto connect if only one serial port exists
+		Object[] serialPorts = SerialPortListener.getSerialPorts();
+		if(serialPorts.length == 1)
+			connect((String) serialPorts[0]);
+	}
+	
+	/**
+	 * Attempt to connect to a port, and start a thread listening to it.
+	 * 
+	 * @param port		Port name, see SerialPortListener.establishConnection()
+	 */
+	private void connect(String port) {
+		if(ports.contains(port)) {
+			System.err.println("Already connected to " + port + ".");
+			return;
 		}
+		
+		String namespace = ports.isEmpty() ? "" : SerialPortListener.getNamespace(port, namespaces);
+		SerialPortListener listener = new SerialPortListener(db, namespace, (ByteQueue.Policy) overflowSelection.getSelectedItem());
+		if(!listener.establishConnection(port, Integer.parseInt((String) baudRateSelection.getSelectedItem())))
+			return;
+		
+		Thread thread = new Thread(listener, "Telemetry " + port);
+		thread.start();
+		ports.add(port);
+		namespaces.add(namespace);
+		
+		String text = "Connected: ";
+		for(int i = 0; i < ports.size(); i++)
+			text += (i == 0 ? "" : ",  ") + ports.get(i) + (namespaces.get(i).isEmpty() ? "" : " (" + namespaces.get(i) + Database.NAMESPACE_SEPARATOR + ")");
+		connectionsLabel.setText(text);
 	}
 
 	/**
-	 * Attempt to create an RS232 link if a link is not currently active.
+	 * Start or stop recording, or attempt to create an RS232 link to the selected port.
 	 */
 	@Override
 	public void mouseClicked(MouseEvent e) {
-		if(applyButton.isEnabled() == false)
+		if(e.getSource() == recordButton) {
+			toggleRecording();
 			return;
+		} else if(e.getSource() == replayButton) {
+			toggleReplay();
+			return;
+		} else if(e.getSource() == shareButton) {
+			toggleSharing();
+			return;
+		} else if(e.getSource() == latencyButton) {
+			// only one latency window, since closing it stops tracing
+			if(latencyWindow == null || !latencyWindow.isDisplayable())
+				latencyWindow = new LatencyWindow(db);
+			else
+				latencyWindow.toFront();
+			return;
+		}
 		
-		if(rs232.establishConnection((String) portString.getSelectedItem(), Integer.parseInt((String) baudRateSelection.getSelectedItem()))) {
-			rs232thread.start();
-			applyButton.setEnabled(false);
+		connect((String) portString.getSelectedItem());
+	}
+
+	/**
+	 * Start recording to a new file in the working directory, or stop the current recording.
+	 */
+	private void toggleRecording() {
+		if(recorder == null) {
+			File file = new File("telemetry-" + new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss").format(new Date()) + ".rec");
+			try {
+				recorder = new Recorder(db, file);
+				recorder.start();
+				recordButton.setText("Stop Recording");
+			} catch(Exception ex) {
+				System.err.println("Unable to create recording file " + file.getAbsolutePath());
+				recorder = null;
+			}
+		} else {
+			recorder.stop();
+			recorder = null;
+			recordButton.setText("Record");
+		}
+	}
+
+	/**
+	 * Start streaming the telemetry to TCP clients, or stop the server.
+	 */
+	private void toggleSharing() {
+		if(server == null) {
+			try {
+				server = new TelemetryServer(db, TelemetryServer.DEFAULT_PORT);
+				server.start();
+				shareButton.setText("Stop Sharing");
+			} catch(Exception ex) {
+				System.err.println("Unable to share telemetry on TCP port " + TelemetryServer.DEFAULT_PORT);
+				server = null;
+			}
+		} else {
+			server.stop();
+			server = null;
+			shareButton.setText("Share");
 		}
 	}
 
+	/**
+	 * Ask the user for a recording and play it back into the database, or stop the current playback.
+	 */
+	private void toggleReplay() {
+		if(player == null) {
+			JFileChooser chooser = new JFileChooser(new File("."));
+			chooser.setFileFilter(new FileNameExtensionFilter("Recordings", "rec"));
+			if(chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION)
+				return;
+			
+			File file = chooser.getSelectedFile();
+			try {
+				player = new Player(db, file);
+				player.setSpeed(getReplaySpeed());
+				player.start();
+				replayButton.setText("Stop Replay");
+				updatingReplayPosition = true;
+				replayPosition.setMaximum((int) (player.getDuration() / 1000000));
+				replayPosition.setValue(0);
+				updatingReplayPosition = false;
+				replayPosition.setEnabled(true);
+				updateReplayTime();
+				replayTimer.start();
+			} catch(Exception ex) {
+				System.err.println("Unable to replay " + file.getAbsolutePath());
+				player = null;
+			}
+		} else {
+			replayTimer.stop();
+			replayPosition.setEnabled(false);
+			player.stop();
+			player = null;
+			replayButton.setText("Replay...");
+		}
+	}
+	
+	/**
+	 * Show the replay position and the length of the recording.
+	 */
+	private void updateReplayTime() {
+		replayTimeLabel.setText(formatTime(replayPosition.getValue()) + " / " + formatTime(replayPosition.getMaximum()));
+	}
+	
+	/**
+	 * @param milliseconds	A duration
+	 * @return				The duration as minutes and seconds, for example "12:05"
+	 */
+	private static String formatTime(long milliseconds) {
+		long seconds = milliseconds / 1000;
+		return String.format("%d:%02d", seconds / 60, seconds % 60);
+	}
+	
+	/**
+	 * @return		Selected replay speed: 1 for real time, N for N times real time, or 0 for as fast as possible
+	 */
+	private double getReplaySpeed() {
+		String speed = (String) replaySpeedSelection.getSelectedItem();
+		if(speed.equals("Max"))
+			return 0;
+		else
+			return Double.parseDouble(speed.substring(0, speed.length() - 1));
+	}
+
 	@Override
 	public void mousePressed(MouseEvent e) {}
 
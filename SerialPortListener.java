@@ -3,28 +3,77 @@ package com.farrellf.TelemetryGUI;
 /**
  * Establishes RS232 communication and perpetually listens for incoming data.
  * 
+ * Any InputStream can be used instead of a serial port. A port name starting with "synthetic"
+ * uses a TelemetryGenerator, so throughput can be tested without a robot attached.
+ * A port name like "tcp:host:port" connects to a TelemetryServer, to watch the telemetry received by another copy of this program.
+ * 
+ * Several listeners can run at once, one thread per port, all writing to the same Database.
+ * Each one should use its own namespace, so its values are committed under their own lock.
+ * 
+ * Serial ports are read when RXTX reports DATA_AVAILABLE: the thread sleeps until then, and each wakeup drains every available byte
+ * in as few reads as possible. Other streams are read with blocking reads. If reading fails, for example because the USB adapter
+ * was unplugged, the error is reported once and the thread waits before trying again, doubling the wait up to MAX_BACKOFF.
+ * Serial ports (and server connections) are reopened after each wait, so the link resumes when the adapter is plugged back in.
+ * 
+ * The port may send the text format or the binary protocol, which is detected by a ProtocolDetector. See BinaryParser.
+ * 
+ * The thread that reads the port never parses: it hands each block of bytes to a second thread through a ByteQueue,
+ * so a stall while parsing or storing values does not keep the port from being drained. If the parser falls that far behind,
+ * the queue's Policy decides which bytes are dropped (or to wait, letting the bytes back up into the serial driver).
+ * 
  * @author  Farrell Farahbod
  * @version 1.0
  */
 
 import gnu.io.*;
 import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.List;
-import java.util.Scanner;
 
-public class SerialPortListener implements Runnable {
-	private Database db;
+public class SerialPortListener implements Runnable, SerialPortEventListener {
+	static final int EVENT_TIMEOUT = 250; // ms to wait for DATA_AVAILABLE before checking anyway, in case a notification was missed
+	static final int MIN_BACKOFF = 10;    // ms to wait after the first error
+	static final int MAX_BACKOFF = 2000;  // ms to wait after repeated errors
+	static final int BLOCK_SIZE = 8192;   // most bytes read at once
+	static final int QUEUE_BYTES = 1 << 19; // 512kB, several seconds of telemetry at 921600 baud
+	static final int PARSER_TIMEOUT = 1000; // ms the parser thread waits for bytes before checking if it should stop
+	static final int CONNECT_TIMEOUT = 5000; // ms to wait when connecting to a TelemetryServer
+	
+	private ProtocolDetector parser;
+	private IngestMetrics metrics;
 	private SerialPort rs232;
 	private InputStream rs232istream;
-	private Scanner rs232scanner;
-	private String line;
-	private String value;
-	private int number;
+	private ByteQueue queue;
+	private volatile boolean reading;
+	
+	// port settings, for reopening the port after an error
+	private String portName;
+	
+	// server address, for reconnecting after an error
+	private String serverAddress;
+	private Socket socket;
+	private int baudRate;
+	
+	// set by the RXTX event thread when bytes arrive
+	private final Object dataLock = new Object();
+	private boolean dataAvailable;
 	
 	public SerialPortListener(Database db) {
-		this.db = db;
+		this(db, "", ByteQueue.Policy.DROP_OLDEST);
+	}
+	
+	/**
+	 * @param db			Database to add the values to
+	 * @param namespace		Namespace for the item names, or "" for the default namespace. See ChannelNameTable.
+	 * @param policy		What to do with new bytes if the parser falls behind and the queue fills up
+	 */
+	public SerialPortListener(Database db, String namespace, ByteQueue.Policy policy) {
+		this.parser = new ProtocolDetector(db, namespace);
+		this.metrics = db.getIngestMetrics();
+		this.queue = new ByteQueue(QUEUE_BYTES, BLOCK_SIZE, policy, metrics);
 	}
 	
 	/**
@@ -32,7 +81,7 @@ public class SerialPortListener implements Runnable {
 	 * 
 	 * @return	An array representing the ports
 	 */
-	public Object[] getSerialPorts() {
+	public static Object[] getSerialPorts() {
 		List<String> list = new ArrayList<String>();
 		
 		@SuppressWarnings("unchecked")
@@ -47,19 +96,60 @@ public class SerialPortListener implements Runnable {
 		return list.toArray();
 	}
 	
+	/**
+	 * Choose an unused namespace for a port: the last part of its path (for example "ttyUSB1" for "/dev/ttyUSB1"),
+	 * or "synthetic" for a TelemetryGenerator, followed by a number if that namespace is already used.
+	 * 
+	 * @param port			Port name
+	 * @param namespaces	Namespaces already in use
+	 * @return				The namespace
+	 */
+	public static String getNamespace(String port, List<String> namespaces) {
+		String name;
+		if(port.startsWith(TelemetryGenerator.PREFIX))
+			name = "synthetic";
+		else
+			name = port.substring(Math.max(port.lastIndexOf('/'), port.lastIndexOf('\\')) + 1).replace(Database.NAMESPACE_SEPARATOR, '_');
+		if(name.isEmpty())
+			name = "port";
+		
+		String namespace = name;
+		for(int i = 2; namespaces.contains(namespace); i++)
+			namespace = name + i;
+		return namespace;
+	}
+	
 	/**
 	 * Attempt to create an RS232 link.
 	 * 
-	 * @param port		String name, for example: /dev/ttyUSB0
+	 * @param port		String name, for example: /dev/ttyUSB0, or a TelemetryGenerator description, for example: synthetic:channels=32,rate=20000
 	 * @param baudRate	Baud rate
 	 * @return			Returns true if link was created
 	 */
 	public Boolean establishConnection(String port, int baudRate) {
+		if(port.startsWith(TelemetryServer.PREFIX)) {
+			try {
+				connect(port);
+				System.out.println("Connected to " + port + ".");
+				return true;
+			} catch(Exception e) {
+				System.err.println("Unable to connect to " + port + ".");
+				System.err.println(e.getClass().toString());
+				return false;
+			}
+		}
+		
+		if(port.startsWith(TelemetryGenerator.PREFIX)) {
+			try {
+				return establishConnection(TelemetryGenerator.fromDescription(port), port);
+			} catch(Exception e) {
+				System.err.println("Invalid synthetic source: " + port + " (" + e.getMessage() + ")");
+				return false;
+			}
+		}
+		
 		try {
-			rs232 = (SerialPort) CommPortIdentifier.getPortIdentifier(port).open("Robot Telemetry", 20000); // appname, timeout in ms
-			rs232.setSerialPortParams(baudRate, SerialPort.DATABITS_8, SerialPort.STOPBITS_1, SerialPort.PARITY_NONE);
-			rs232istream = rs232.getInputStream();
-			rs232scanner = new Scanner(rs232istream);
+			open(port, baudRate);
 			System.out.println("Connected to " + port + " at " + baudRate + " baud.");
 			return true;
 		} catch (Exception e) {
@@ -70,36 +160,223 @@ public class SerialPortListener implements Runnable {
 	}
 	
 	/**
-	 * A separate thread to constantly monitor the RS232 link.
+	 * Open a serial port and ask RXTX to notify this listener when data arrives.
+	 * 
+	 * @param port			String name, for example: /dev/ttyUSB0
+	 * @param baudRate		Baud rate
+	 * @throws Exception	If the port can not be opened
+	 */
+	private void open(String port, int baudRate) throws Exception {
+		SerialPort serialPort = (SerialPort) CommPortIdentifier.getPortIdentifier(port).open("Robot Telemetry", 20000); // appname, timeout in ms
+		try {
+			serialPort.setSerialPortParams(baudRate, SerialPort.DATABITS_8, SerialPort.STOPBITS_1, SerialPort.PARITY_NONE);
+			serialPort.addEventListener(this);
+			serialPort.notifyOnDataAvailable(true);
+			rs232istream = serialPort.getInputStream();
+			rs232 = serialPort;
+			portName = port;
+			this.baudRate = baudRate;
+		} catch(Exception e) {
+			serialPort.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Connect to a TelemetryServer.
+	 * 
+	 * @param address		"tcp:host:port", or "tcp:host" for the default port
+	 * @throws IOException	If the connection fails
+	 */
+	private void connect(String address) throws IOException {
+		String hostPort = address.substring(TelemetryServer.PREFIX.length());
+		int colon = hostPort.lastIndexOf(':');
+		String host = (colon == -1) ? hostPort : hostPort.substring(0, colon);
+		int port = (colon == -1) ? TelemetryServer.DEFAULT_PORT : Integer.parseInt(hostPort.substring(colon + 1));
+		
+		Socket newSocket = new Socket();
+		try {
+			newSocket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+			newSocket.setTcpNoDelay(true);
+			rs232istream = newSocket.getInputStream();
+		} catch(IOException e) {
+			newSocket.close();
+			throw e;
+		}
+		socket = newSocket;
+		serverAddress = address;
+	}
+	
+	/**
+	 * Close and reopen the serial port or server connection after an error. Other streams are left alone.
+	 * 
+	 * @return		True if the port was reopened
+	 */
+	private boolean reopen() {
+		if(serverAddress != null) {
+			try { socket.close(); } catch(IOException e) {}
+			try {
+				connect(serverAddress);
+				return true;
+			} catch(Exception e) {
+				return false; // the server is still down, try again after the next wait
+			}
+		}
+		
+		if(portName == null)
+			return false;
+		
+		if(rs232 != null) {
+			rs232.removeEventListener();
+			rs232.close();
+			rs232 = null;
+		}
+		try {
+			open(portName, baudRate);
+			return true;
+		} catch(Exception e) {
+			return false; // still unplugged, try again after the next wait
+		}
+	}
+	
+	/**
+	 * Use an InputStream instead of a serial port.
+	 * 
+	 * @param stream		Source of telemetry text
+	 * @param description	Description of the source, for messages
+	 * @return				Returns true
+	 */
+	public Boolean establishConnection(InputStream stream, String description) {
+		rs232istream = stream;
+		rs232 = null;
+		portName = null;
+		System.out.println("Connected to " + description + ".");
+		return true;
+	}
+	
+	/**
+	 * Called by RXTX on its event thread: wake up the listening thread.
+	 */
+	@Override
+	public void serialEvent(SerialPortEvent event) {
+		if(event.getEventType() != SerialPortEvent.DATA_AVAILABLE)
+			return;
+		synchronized(dataLock) {
+			dataAvailable = true;
+			dataLock.notify();
+		}
+	}
+	
+	/**
+	 * A separate thread to constantly monitor the RS232 link. It starts a second thread to parse the bytes.
+	 * Returns if the thread is interrupted, after the parsing thread has finished the queued bytes.
 	 */
 	@Override
 	public void run() {
+		reading = true;
+		Thread parserThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				parseQueued();
+			}
+		}, Thread.currentThread().getName() + " parser");
+		parserThread.start();
+		
+		try {
+			read();
+		} finally {
+			reading = false;
+			parserThread.interrupt();
+		}
+	}
+	
+	/**
+	 * Read from the port into the queue until the thread is interrupted.
+	 */
+	private void read() {
+		int backoff = 0; // ms, 0 while reading succeeds
 		while(true) {
 			try {
-				// interpret incoming lines of text				
-				line = rs232scanner.nextLine();
-				
-				if(line.length() == 65)
-					line = line.substring(3); // trim \x1B[H ASCII escape sequence
-				
-				if(line.length() != 62)
-					continue; // empty or corrupt line
-				
-				try {
-					value = line.substring(12, 18);
-					number = Integer.parseInt(value);
-					
-					// populate the db
-					db.addValue(line.substring(0, line.indexOf(" ")), number);
-					
-					//System.out.println("line = \"" + line + "\",      value = " + value + ",      number = " + number);
-				} catch(Exception e) {
-					//System.err.println("Error processing line: \"" + line + "\"");
+				if(portName != null)
+					readAvailable();
+				else
+					readBlocking();
+				if(backoff != 0) {
+					System.out.println("Receiving from " + (portName != null ? portName : serverAddress != null ? serverAddress : "the input stream") + " again.");
+					backoff = 0;
 				}
+			} catch(InterruptedException e) {
+				return;
 			} catch(Exception e) {
-				System.err.println("One or more errors occured.");
-				System.err.println(e.getClass().toString());
+				metrics.recordReadError();
+				if(backoff == 0) {
+					System.err.println("One or more errors occured. Retrying every " + MAX_BACKOFF + " ms or less.");
+					System.err.println(e.getClass().toString());
+				}
+				backoff = Math.min(Math.max(backoff * 2, MIN_BACKOFF), MAX_BACKOFF);
+				try {
+					Thread.sleep(backoff);
+				} catch(InterruptedException ie) {
+					return;
+				}
+				reopen();
+			}
+		}
+	}
+	
+	/**
+	 * The parsing thread: parse each block of bytes from the queue, until reading stops and the queue is empty.
+	 */
+	private void parseQueued() {
+		byte[] block = new byte[BLOCK_SIZE];
+		while(true) {
+			int length;
+			try {
+				length = queue.poll(block, PARSER_TIMEOUT);
+			} catch(InterruptedException e) {
+				length = queue.poll(block); // reading stopped, finish the queued bytes without waiting
 			}
+			if(length > 0) {
+				if(queue.isAfterGap())
+					parser.discontinuity();
+				parser.parse(block, 0, length, queue.getReadTime());
+			}
+			else if(!reading)
+				return;
+		}
+	}
+	
+	/**
+	 * Wait for RXTX to report new data, then read all of the available bytes into the queue.
+	 */
+	private void readAvailable() throws IOException, InterruptedException {
+		if(rs232 == null)
+			throw new IOException(portName + " is not open");
+		
+		synchronized(dataLock) {
+			if(!dataAvailable)
+				dataLock.wait(EVENT_TIMEOUT);
+			dataAvailable = false;
 		}
+		
+		int available;
+		while((available = rs232istream.available()) > 0) {
+			byte[] buffer = queue.getWriteBuffer();
+			int length = rs232istream.read(buffer, queue.getWriteOffset(), Math.min(available, queue.getWriteLength()));
+			if(length < 0)
+				throw new EOFException();
+			queue.publish(length, System.nanoTime());
+		}
+	}
+	
+	/**
+	 * Read as many bytes as the stream gives in one read, into the queue.
+	 */
+	private void readBlocking() throws IOException, InterruptedException {
+		byte[] buffer = queue.getWriteBuffer();
+		int length = rs232istream.read(buffer, queue.getWriteOffset(), queue.getWriteLength());
+		if(length < 0)
+			throw new EOFException(); // nothing more will arrive, so wait before trying again instead of spinning
+		queue.publish(length, System.nanoTime());
 	}
 }
@@ -0,0 +1,214 @@
+package com.farrellf.TelemetryGUI;
+
+/**
+ * Running statistics of one telemetry item: count, mean, standard deviation, min and max,
+ * both over all values ever added and over a sliding window of the most recent values.
+ *
+ * Each Channel owns one Statistics, which is updated as each value is added, with a fixed amount of work per value:
+ * The all-time mean and variance use Welford's method, which stays accurate over any number of values.
+ * The window keeps exact integer sums of the values and their squares, adding the new value and subtracting the one that left the window.
+ * (The sums are exact for values up to 2^26 in magnitude, far beyond the six digit values of the telemetry format.)
+ * The window min and max are kept with monotonic deques of value indices: the front of each deque is the current min (or max),
+ * and each index is pushed and popped at most once.
+ *
+ * Readers get a snapshot with Database.getStatistics(), which copies the fields but never looks at the history.
+ *
+ * @author Farrell Farahbod
+ * @version 1.0
+ */
+public class Statistics {
+
+	// number of recent values covered by the sliding window, unless the channel retains fewer
+	public static final int WINDOW = 1024;
+
+	long count;
+	double mean;
+	double m2;          // sum of squared differences from the mean
+	int min;
+	int max;
+
+	int window;         // window size, a power of two
+	int windowCount;    // number of values in the window, less than window until enough values exist
+	long windowSum;
+	long windowSumSquares;
+	int windowMin;
+	int windowMax;
+
+	// monotonic deques of the indices of values in the window, ring buffers of window entries
+	private long[] minDeque;
+	private long[] maxDeque;
+	private long minHead, minTail;
+	private long maxHead, maxTail;
+
+	/**
+	 * Create an empty snapshot, to be filled by Database.getStatistics().
+	 */
+	public Statistics() {
+		this.window = 0;
+	}
+
+	/**
+	 * Create empty running statistics.
+	 *
+	 * @param window	Number of recent values covered by the sliding window, a power of two
+	 */
+	public Statistics(int window) {
+		this.window = window;
+		this.minDeque = new long[window];
+		this.maxDeque = new long[window];
+	}
+
+	/**
+	 * Include a new value. Called by the Channel after the value has been written to its ring buffer.
+	 *
+	 * @param index		Index of the value
+	 * @param value		The value
+	 * @param leaving	The value that left the window (index - window), if windowCount was already full
+	 * @param values	The channel's ring buffer, for looking up the values of the deque indices
+	 * @param mask		Mask for converting an index to a ring buffer slot
+	 */
+	public void add(long index, int value, int leaving, int[] values, int mask) {
+		// all-time, Welford's method
+		count++;
+		double delta = value - mean;
+		mean += delta / count;
+		m2 += delta * (value - mean);
+		if(count == 1 || value < min)
+			min = value;
+		if(count == 1 || value > max)
+			max = value;
+
+		// window sums
+		if(windowCount == window) {
+			windowSum -= leaving;
+			windowSumSquares -= (long) leaving * leaving;
+		} else {
+			windowCount++;
+		}
+		windowSum += value;
+		windowSumSquares += (long) value * value;
+
+		// window min: drop the index that left the window, then the values that can never be the min again
+		int dequeMask = window - 1;
+		if(minTail > minHead && minDeque[(int) (minHead & dequeMask)] <= index - window)
+			minHead++;
+		while(minTail > minHead && values[(int) (minDeque[(int) ((minTail - 1) & dequeMask)] & mask)] >= value)
+			minTail--;
+		minDeque[(int) (minTail++ & dequeMask)] = index;
+		windowMin = values[(int) (minDeque[(int) (minHead & dequeMask)] & mask)];
+
+		// window max
+		if(maxTail > maxHead && maxDeque[(int) (maxHead & dequeMask)] <= index - window)
+			maxHead++;
+		while(maxTail > maxHead && values[(int) (maxDeque[(int) ((maxTail - 1) & dequeMask)] & mask)] <= value)
+			maxTail--;
+		maxDeque[(int) (maxTail++ & dequeMask)] = index;
+		windowMax = values[(int) (maxDeque[(int) (maxHead & dequeMask)] & mask)];
+	}
+
+	/**
+	 * Copy the statistics (but not the deques) into a snapshot.
+	 *
+	 * @param dest		The snapshot
+	 */
+	public void copyTo(Statistics dest) {
+		dest.count = count;
+		dest.mean = mean;
+		dest.m2 = m2;
+		dest.min = min;
+		dest.max = max;
+		dest.windowCount = windowCount;
+		dest.windowSum = windowSum;
+		dest.windowSumSquares = windowSumSquares;
+		dest.windowMin = windowMin;
+		dest.windowMax = windowMax;
+	}
+
+	/**
+	 * Replace the all-time statistics with those of another Statistics, when a channel is replaced.
+	 *
+	 * @param source	The statistics to copy
+	 */
+	public void copyAllTime(Statistics source) {
+		count = source.count;
+		mean = source.mean;
+		m2 = source.m2;
+		min = source.min;
+		max = source.max;
+	}
+
+	/**
+	 * @return		Number of values ever added
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return		Mean of all values, or 0 if no values exist
+	 */
+	public double getMean() {
+		return mean;
+	}
+
+	/**
+	 * @return		Sample standard deviation of all values, or 0 if fewer than two values exist
+	 */
+	public double getStandardDeviation() {
+		return (count < 2) ? 0 : Math.sqrt(m2 / (count - 1));
+	}
+
+	/**
+	 * @return		Smallest value ever added, or 0 if no values exist
+	 */
+	public int getMin() {
+		return min;
+	}
+
+	/**
+	 * @return		Largest value ever added, or 0 if no values exist
+	 */
+	public int getMax() {
+		return max;
+	}
+
+	/**
+	 * @return		Number of values in the sliding window
+	 */
+	public int getWindowCount() {
+		return windowCount;
+	}
+
+	/**
+	 * @return		Mean of the values in the sliding window, or 0 if no values exist
+	 */
+	public double getWindowMean() {
+		return (windowCount == 0) ? 0 : (double) windowSum / windowCount;
+	}
+
+	/**
+	 * @return		Sample standard deviation of the values in the sliding window, or 0 if fewer than two values exist
+	 */
+	public double getWindowStandardDeviation() {
+		if(windowCount < 2)
+			return 0;
+		double mean = (double) windowSum / windowCount;
+		double variance = (windowSumSquares - mean * windowSum) / (windowCount - 1);
+		return Math.sqrt(Math.max(0, variance));
+	}
+
+	/**
+	 * @return		Smallest value in the sliding window, or 0 if no values exist
+	 */
+	public int getWindowMin() {
+		return windowMin;
+	}
+
+	/**
+	 * @return		Largest value in the sliding window, or 0 if no values exist
+	 */
+	public int getWindowMax() {
+		return windowMax;
+	}
+
+}
@@ -1,13 +1,11 @@
 package com.farrellf.TelemetryGUI;
 
 import java.awt.*;
-import javax.swing.Timer;
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.text.DecimalFormat;
 import java.util.*;
+import java.util.List;
 import javax.swing.*;
 import javax.swing.border.TitledBorder;
 import javax.swing.border.EtchedBorder;
@@ -19,12 +17,18 @@ import javax.swing.border.EtchedBorder;
  * @version 1.0
  *
  */
-public class TelemetryGUI extends JFrame implements ActionListener {
+public class TelemetryGUI extends JFrame implements Renderable {
 	
 	Map<String, TelemetryGroup> groups;
+	List<TelemetryItem> items; // every item of every group, iterated by the timer
 	JPanel mainPanel;
 	BallPanel ball;
+	int angleXChannel;
+	int angleYChannel;
+	int[] lastValues; // most recent value of each channel, indexed by channel id
+	int[] channels;   // channels shown: every item, and the angles
 	Database db;
+	RenderScheduler scheduler;
 
 	/**
 	 * Initialize the GUI.
@@ -35,7 +39,11 @@ public class TelemetryGUI extends JFrame implements ActionListener {
 	public TelemetryGUI(Database database) {
 		
 		db = database;
+		scheduler = new RenderScheduler(db);
+		scheduler.getMetrics().register();
 		groups = new HashMap<String, TelemetryGroup>();
+		items = new ArrayList<TelemetryItem>();
+		lastValues = new int[0];
 		
 		try {UIManager.setLookAndFeel("javax.swing.plaf.nimbus.NimbusLookAndFeel");} catch (Exception e) {}
 		setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -50,6 +58,9 @@ public class TelemetryGUI extends JFrame implements ActionListener {
 		gbc.gridx = 3;
 		gbc.gridy = 0;
 		mainPanel.add(ball, gbc);
+		angleXChannel = db.addChannel("AngleX");
+		angleYChannel = db.addChannel("AngleY");
+		channels = new int[] {angleXChannel, angleYChannel};
 
 		SerialConfigPanel serialConfig = new SerialConfigPanel(db);
 		gbc.gridx = 0;
@@ -64,9 +75,8 @@ public class TelemetryGUI extends JFrame implements ActionListener {
 		setResizable(false);
 		setVisible(true);
 		
-		// use a timer to update the GUI every 20ms (50Hz)
-		Timer timer = new Timer(20, this);
-		timer.start();
+		// update the GUI when new values arrive
+		scheduler.add(this);
 	}
 	
 	/**
@@ -96,7 +106,7 @@ public class TelemetryGUI extends JFrame implements ActionListener {
 	 * 
 	 * @param groupName		Group name
 	 * @param itemName		Item name
-	 * @param dbName		Identifier used in the database
+	 * @param channel		Channel id used in the database
 	 * @param min			Minimum value
 	 * @param max			Maximum value
 	 * @param factor		Scaling factor. The raw value is divided by this number to get the formatted value.
@@ -104,8 +114,8 @@ public class TelemetryGUI extends JFrame implements ActionListener {
 	 * @param suffix		Text to append to the formatted value
 	 * @param value			Default raw value
 	 */
-	public void addGroupItem(String groupName, String itemName, String dbName, int min, int max, double factor, String df, String suffix, int value) {
-		groups.get(groupName).addItem(itemName, dbName, min, max, factor, df, suffix, value);
+	public void addGroupItem(String groupName, String itemName, int channel, int min, int max, double factor, String df, String suffix, int value) {
+		groups.get(groupName).addItem(itemName, channel, min, max, factor, df, suffix, value);
 	}
 	
 	/**
@@ -119,21 +129,53 @@ public class TelemetryGUI extends JFrame implements ActionListener {
 		groups.get(groupName).getTelemetryItem(itemName).setValue(value);
 	}
 	
+	@Override
+	public int[] getChannels() {
+		return channels;
+	}
+	
+	@Override
+	public boolean isOnScreen() {
+		return isShowing() && (getExtendedState() & ICONIFIED) == 0;
+	}
+	
 	/**
-	 * Timer event occurred, update all values by iterating through each group
+	 * New values arrived, update all values by iterating through each group
 	 */
 	@Override
-	public void actionPerformed(ActionEvent e) {
+	public void render() {
+		lastValues = refreshItems(db, items, lastValues);
+		
+		LatencyTracer tracer = db.getLatencyTracer();
+		if(tracer.isEnabled())
+			for(int i = 0; i < items.size(); i++)
+				items.get(i).tracedCount = tracer.traceDisplay(items.get(i).channel, items.get(i).tracedCount, LatencyTracer.Display.MAIN_WINDOW);
+
+		ball.setAngleX(lastValues[angleYChannel] / 114);
+		ball.setAngleY(lastValues[angleXChannel] / -114);
+	}
+	
+	/**
+	 * Update items with the most recent frame.
+	 * 
+	 * @param db			Database object
+	 * @param items			Items to update
+	 * @param lastValues	Array for the most recent value of each channel, indexed by channel id
+	 * @return				The array holding the values, a new one if channels were added to the database
+	 */
+	static int[] refreshItems(Database db, List<TelemetryItem> items, int[] lastValues) {
+		// get a consistent snapshot of the most recent frame
+		if(lastValues.length != db.getChannelCount())
+			lastValues = new int[db.getChannelCount()];
+		db.getLastValues(lastValues);
+		
 		// For each TelemetryGroupItem in each TelemetryGroup, update its value
-		for(String groupName: groups.keySet()) {
-			for(String groupItemName: groups.get(groupName).items.keySet()) {
-				String dbName = groups.get(groupName).getTelemetryItem(groupItemName).dbName;
-				setGroupItemValue(groupName, groupItemName, db.getLastValue(dbName));
-			}
+		for(int i = 0; i < items.size(); i++) {
+			TelemetryItem item = items.get(i);
+			item.setValue(lastValues[item.channel]);
 		}
-
-		ball.setAngleX(db.getLastValue("AngleY") / 114);
-		ball.setAngleY(db.getLastValue("AngleX") / -114);
+		
+		return lastValues;
 	}
 	
 	/**
@@ -170,7 +212,7 @@ public class TelemetryGUI extends JFrame implements ActionListener {
 		 * Add an item to the TelemetryGroup
 		 * 
 		 * @param itemName		Item name
-		 * @param dbName		Identifier used in the database
+		 * @param channel		Channel id used in the database
 		 * @param min			Minimum value
 		 * @param max			Maximum value
 		 * @param factor		Scaling factor. The raw value is divided by this number to get the formatted value.
@@ -178,12 +220,15 @@ public class TelemetryGUI extends JFrame implements ActionListener {
 		 * @param suffix		Text to append to the formatted value
 		 * @param value			Default raw value
 		 */
-		public void addItem(String itemName, String dbName, int min, int max, double factor, String df, String suffix, int value) {
+		public void addItem(String itemName, int channel, int min, int max, double factor, String df, String suffix, int value) {
 			if(!items.containsKey(itemName)) {
-				TelemetryItem ti = new TelemetryItem(itemName, dbName, min, max, factor, df, suffix, value);
+				TelemetryItem ti = new TelemetryItem(db, scheduler, itemName, channel, min, max, factor, df, suffix, value);
 				add(ti, gbc);
 				gbc.gridy++;
 				items.put(itemName, ti);
+				TelemetryGUI.this.items.add(ti);
+				channels = Arrays.copyOf(channels, channels.length + 1);
+				channels[channels.length - 1] = channel;
 			}
 		}
 		
@@ -202,17 +247,32 @@ public class TelemetryGUI extends JFrame implements ActionListener {
 	/**
 	 * A custom JPanel that represents one telemetry item.
 	 * A label, the raw integer, a formatted number and a slider are used to display data.
+	 * 
+	 * The components are only updated when the value changes. The text for recently shown values is kept in a small cache,
+	 * so a value that keeps returning (a steady sensor with a little noise) is not formatted again.
 	 */
-	private class TelemetryItem extends JPanel implements MouseListener {
+	static class TelemetryItem extends JPanel implements MouseListener {
+		
+		static final int CACHE_SIZE = 64; // must be a power of two
 
+		Database db;
+		RenderScheduler scheduler;
 		DecimalFormat formattedDF;
 		DecimalFormat rawDF;
 		String suffix;
 		String name;
-		String dbName;
+		int channel;
 		int min;
 		int max;
 		double factor;
+		int value;                 // value being shown
+		Statistics statistics;     // snapshot for the tooltip
+		long tracedCount;          // values shown, for the LatencyTracer
+		
+		// text for recently shown values, indexed by the low bits of the value
+		int[] cacheValues;
+		String[] cacheRaw;
+		String[] cacheFormatted;
 		
 		JLabel title;
 		JLabel rawValue;
@@ -220,19 +280,26 @@ public class TelemetryGUI extends JFrame implements ActionListener {
 		JSlider slider;
 		GridBagConstraints gbc;
 		
-		public TelemetryItem(String name, String dbName, int min, int max, double factor, String df, String suffix, int value) {
+		public TelemetryItem(Database db, RenderScheduler scheduler, String name, int channel, int min, int max, double factor, String df, String suffix, int value) {
+			this.db = db;
+			this.scheduler = scheduler;
 			this.formattedDF = new DecimalFormat(df);
 			this.rawDF = new DecimalFormat("+00000;-#");
 			this.suffix = suffix;
 			this.name = name;
-			this.dbName = dbName;
+			this.channel = channel;
 			this.min = min;
 			this.max = max;
 			this.factor = factor;
+			this.value = value;
+			this.cacheValues = new int[CACHE_SIZE];
+			this.cacheRaw = new String[CACHE_SIZE];
+			this.cacheFormatted = new String[CACHE_SIZE];
+			this.statistics = new Statistics();
 			
 			title = new JLabel(name);
-			rawValue = new JLabel(rawDF.format(value));
-			formattedValue = new JLabel(formattedDF.format(value / factor) + " " + suffix);
+			rawValue = new ValueLabel(rawDF.format(value));
+			formattedValue = new ValueLabel(formattedDF.format(value / factor) + " " + suffix);
 			slider = new JSlider();
 			slider.setValue((int) (value / factor));
 			slider.setMinimum(min);
@@ -255,13 +322,11 @@ public class TelemetryGUI extends JFrame implements ActionListener {
 			gbc.gridx = 0;
 			gbc.gridy = 1;
 			gbc.weightx = 1.0;
-			rawValue.setFont(new Font("Monospaced", Font.PLAIN, 12));
 			add(rawValue, gbc);
 			
 			gbc.gridx = 0;
 			gbc.gridy = 2;
 			gbc.weightx = 1.0;
-			formattedValue.setFont(new Font("Monospaced", Font.PLAIN, 12));
 			add(formattedValue, gbc);
 			
 			gbc.gridx = 1;
@@ -271,17 +336,50 @@ public class TelemetryGUI extends JFrame implements ActionListener {
 			add(slider, gbc);
 			
 			this.addMouseListener(this);
+			ToolTipManager.sharedInstance().registerComponent(this);
+		}
+		
+		/**
+		 * Show the running statistics of the item when the mouse hovers over it.
+		 * The statistics are only read when the tooltip is shown, so they cost nothing while refreshing.
+		 */
+		@Override
+		public String getToolTipText(MouseEvent e) {
+			db.getStatistics(channel, statistics);
+			if(statistics.getCount() == 0)
+				return "<html><b>" + name + "</b><br>No values yet</html>";
+			
+			return "<html><b>" + name + "</b><br>" +
+			       "All " + statistics.getCount() + " values: " + formatStatistics(statistics.getMean(), statistics.getStandardDeviation(), statistics.getMin(), statistics.getMax()) + "<br>" +
+			       "Last " + statistics.getWindowCount() + " values: " + formatStatistics(statistics.getWindowMean(), statistics.getWindowStandardDeviation(), statistics.getWindowMin(), statistics.getWindowMax()) + "</html>";
+		}
+		
+		private String formatStatistics(double mean, double standardDeviation, int min, int max) {
+			return "mean " + formattedDF.format(mean / factor) + ", std dev " + formattedDF.format(standardDeviation / factor) +
+			       ", min " + formattedDF.format(min / factor) + ", max " + formattedDF.format(max / factor) + " " + suffix;
 		}
 		
 		public void setValue(int value) {
-			rawValue.setText(rawDF.format(value));
-			formattedValue.setText(formattedDF.format(value / factor) + " " + suffix);
+			if(value == this.value)
+				return;
+			this.value = value;
+			
+			int slot = value & (CACHE_SIZE - 1);
+			if(cacheRaw[slot] == null || cacheValues[slot] != value) {
+				cacheValues[slot] = value;
+				cacheRaw[slot] = rawDF.format(value);
+				cacheFormatted[slot] = formattedDF.format(value / factor) + " " + suffix;
+			}
+			
+			// the labels only revalidate if their text is different
+			rawValue.setText(cacheRaw[slot]);
+			formattedValue.setText(cacheFormatted[slot]);
 			slider.setValue((int) (value / factor));
 		}
 
 		@Override
 		public void mouseClicked(MouseEvent e) {
-			new LineGraph(name, db.getList(dbName), min, max, factor, 500);
+			new LineGraph(name, db, scheduler, channel, min, max, factor, 500);
 		}
 
 		@Override
@@ -296,6 +394,34 @@ public class TelemetryGUI extends JFrame implements ActionListener {
 		@Override
 		public void mouseExited(MouseEvent e) {}
 	}
+	
+	/**
+	 * A JLabel for a number that changes often, in a monospaced font.
+	 * JLabel.setText() asks for a new layout of the window every time the text changes.
+	 * With a monospaced font, the size of the label only depends on the number of characters, so this label only asks for a new layout when that changes.
+	 */
+	static class ValueLabel extends JLabel {
+		
+		Font layoutFont;  // font and length of the text at the last layout
+		int layoutLength;
+		
+		public ValueLabel(String text) {
+			super(text);
+			setFont(new Font("Monospaced", Font.PLAIN, 12));
+		}
+		
+		@Override
+		public void revalidate() {
+			String text = getText();
+			int length = (text == null) ? 0 : text.length();
+			if(getFont() != layoutFont || length != layoutLength) {
+				layoutFont = getFont();
+				layoutLength = length;
+				super.revalidate();
+			}
+		}
+		
+	}
 
 }
 
@@ -0,0 +1,320 @@
+package com.farrellf.TelemetryGUI;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A synthetic telemetry source, for testing throughput without a robot attached.
+ *
+ * Produces the same text the firmware does: screens of 62-character lines, with the "\x1B[H" escape sequence before the first line of each screen.
+ * Or, with format=binary, the binary protocol: one packet per screen, with the definitions of the items every DEFINITION_PERIOD screens.
+ * Each item is a noisy sine wave. A fraction of the lines (or binary packets) can be corrupted, to exercise the parser's error handling.
+ * Lines are produced at a configurable rate, which may be far beyond what a real serial link can carry.
+ * read() blocks until the next line is due, like a serial port would.
+ *
+ * A generator is described by a String, which can be typed into the serial port box:
+ *   synthetic:channels=32,rate=20000,corrupt=0.01
+ * channels = number of items per screen (default 16, at most 255 for the binary format)
+ * rate     = lines (values) per second, 0 for as fast as possible (default: what 921600 baud can carry)
+ * baud     = alternative to rate: the baud rate to simulate, with 8N1 framing
+ * corrupt  = fraction of lines to corrupt (default 0)
+ * format   = text or binary (default text)
+ *
+ * @author Farrell Farahbod
+ * @version 1.0
+ */
+public class TelemetryGenerator extends InputStream {
+
+	static final String PREFIX = "synthetic";
+	static final int LINE_BYTES = TelemetryParser.LINE_LENGTH + 2; // with \r\n
+	static final double BINARY_VALUE_BYTES = 4.2;   // average bytes per value in the binary format, for the baud setting
+	static final int DEFINITION_PERIOD = 100;       // screens between definitions, in the binary format
+
+	private int channels;
+	private double linesPerSecond;
+	private double corruptFraction;
+	private boolean binary;
+	private byte[][] names;
+	private Random random;
+
+	private byte[] buffer;     // generated bytes that have not been read yet
+	private int bufferStart;
+	private int bufferEnd;
+	private long startTime;
+	private long linesGenerated;
+	private int nextChannel;
+
+	// records of the binary packet being generated
+	private byte[] packet;
+	private int packetLength;
+	private boolean packetCorrupt;
+	private long screens;
+
+	/**
+	 * @param channels			Number of items per screen
+	 * @param linesPerSecond	Lines per second, or 0 for as fast as possible
+	 * @param corruptFraction	Fraction of lines to corrupt, from 0 to 1
+	 */
+	public TelemetryGenerator(int channels, double linesPerSecond, double corruptFraction) {
+		this(channels, linesPerSecond, corruptFraction, false);
+	}
+
+	/**
+	 * @param channels			Number of items per screen, at most 255 for the binary format
+	 * @param linesPerSecond	Lines (values) per second, or 0 for as fast as possible
+	 * @param corruptFraction	Fraction of lines (values) to corrupt, from 0 to 1
+	 * @param binary			True for the binary protocol, false for text
+	 * @throws IllegalArgumentException	If there are no items
+	 */
+	public TelemetryGenerator(int channels, double linesPerSecond, double corruptFraction, boolean binary) {
+		if(channels < 1)
+			throw new IllegalArgumentException("There must be at least one channel");
+		if(binary)
+			channels = Math.min(channels, BinaryParser.IDS);
+		this.channels = channels;
+		this.binary = binary;
+		this.packet = new byte[BinaryParser.MAX_PACKET];
+		this.packetLength = 0;
+		this.screens = 0;
+		this.linesPerSecond = linesPerSecond;
+		this.corruptFraction = corruptFraction;
+		this.random = new Random(0);
+		this.buffer = new byte[LINE_BYTES * 1024];
+		this.bufferStart = 0;
+		this.bufferEnd = 0;
+		this.startTime = -1;
+		this.linesGenerated = 0;
+		this.nextChannel = 0;
+
+		names = new byte[channels][];
+		for(int i = 0; i < channels; i++)
+			names[i] = ("Synth" + i).getBytes(StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Create a generator from a description like "synthetic:channels=32,rate=20000,corrupt=0.01"
+	 *
+	 * @param description	The description, see the class documentation
+	 * @return				The generator
+	 * @throws IllegalArgumentException	If a setting is not a number, or is out of range
+	 */
+	public static TelemetryGenerator fromDescription(String description) {
+		int channels = 16;
+		double rate = -1;
+		double baud = 921600;
+		double corrupt = 0;
+		boolean binary = false;
+
+		int colon = description.indexOf(':');
+		if(colon != -1) {
+			for(String setting : description.substring(colon + 1).split(",")) {
+				String[] pair = setting.split("=");
+				if(pair.length != 2)
+					continue;
+				String key = pair[0].trim();
+				String value = pair[1].trim();
+				if(key.equals("channels"))
+					channels = Integer.parseInt(value);
+				else if(key.equals("rate"))
+					rate = Double.parseDouble(value);
+				else if(key.equals("baud"))
+					baud = Double.parseDouble(value);
+				else if(key.equals("corrupt"))
+					corrupt = Double.parseDouble(value);
+				else if(key.equals("format"))
+					binary = value.equals("binary");
+				else
+					System.err.println("Unknown synthetic source setting: " + key);
+			}
+		}
+
+		if(channels < 1)
+			throw new IllegalArgumentException("channels must be at least 1");
+		if(rate != -1 && !(rate >= 0))
+			throw new IllegalArgumentException("rate must be 0 or more");
+		if(!(baud > 0))
+			throw new IllegalArgumentException("baud must be more than 0");
+		if(!(corrupt >= 0 && corrupt <= 1))
+			throw new IllegalArgumentException("corrupt must be from 0 to 1");
+
+		if(rate == -1)
+			rate = baud / 10.0 / (binary ? BINARY_VALUE_BYTES : LINE_BYTES);
+
+		return new TelemetryGenerator(channels, rate, corrupt, binary);
+	}
+
+	@Override
+	public int read() {
+		byte[] b = new byte[1];
+		read(b, 0, 1);
+		return b[0] & 0xFF;
+	}
+
+	/**
+	 * Read as many bytes as are due, blocking until at least one line is due.
+	 */
+	@Override
+	public int read(byte[] b, int offset, int length) {
+		if(length == 0)
+			return 0;
+
+		while(bufferStart == bufferEnd) { // a binary packet is only produced when its screen is complete
+			bufferStart = 0;
+			bufferEnd = 0;
+			generate();
+		}
+
+		int n = Math.min(length, bufferEnd - bufferStart);
+		System.arraycopy(buffer, bufferStart, b, offset, n);
+		bufferStart += n;
+		return n;
+	}
+
+	@Override
+	public int available() {
+		return bufferEnd - bufferStart;
+	}
+
+	/**
+	 * Fill the buffer with all lines that are due, up to its capacity.
+	 */
+	private void generate() {
+		if(startTime == -1)
+			startTime = System.nanoTime();
+
+		long lines = buffer.length / (LINE_BYTES + TelemetryParser.HOME.length);
+		if(linesPerSecond > 0) {
+			// wait until at least one line is due
+			while(true) {
+				long due = (long) ((System.nanoTime() - startTime) / 1000000000.0 * linesPerSecond) - linesGenerated;
+				if(due > 0) {
+					lines = Math.min(lines, due);
+					break;
+				}
+				LockSupport.parkNanos((long) (1000000000.0 / linesPerSecond));
+			}
+		}
+
+		for(long i = 0; i < lines; i++) {
+			if(binary)
+				generateValue();
+			else
+				generateLine();
+		}
+	}
+
+	/**
+	 * @param channel	Item number
+	 * @return			The item's next value: a noisy sine wave
+	 */
+	private int nextValue(int channel) {
+		double phase = (linesGenerated / channels) * 0.01 + channel;
+		int value = (int) (Math.sin(phase) * 50000 + random.nextGaussian() * 500);
+		return Math.max(-99999, Math.min(99999, value));
+	}
+
+	/**
+	 * Add one value to the binary packet, and append the packet to the buffer when its screen is complete.
+	 */
+	private void generateValue() {
+		int channel = nextChannel;
+		nextChannel = (nextChannel + 1) % channels;
+		linesGenerated++;
+
+		if(channel == 0 && screens++ % DEFINITION_PERIOD == 0) {
+			// a packet of definitions
+			for(int i = 0; i < channels; i++) {
+				if(packetLength + 3 + names[i].length > BinaryParser.MAX_PACKET - 2)
+					appendPacket();
+				packet[packetLength++] = (byte) BinaryParser.DEFINITION;
+				packet[packetLength++] = (byte) i;
+				packet[packetLength++] = (byte) names[i].length;
+				System.arraycopy(names[i], 0, packet, packetLength, names[i].length);
+				packetLength += names[i].length;
+			}
+			appendPacket();
+		}
+
+		// id, then the zigzag encoded value as a varint
+		int value = nextValue(channel);
+		int encoded = (value << 1) ^ (value >> 31);
+		packet[packetLength++] = (byte) channel;
+		while((encoded & ~0x7F) != 0) {
+			packet[packetLength++] = (byte) ((encoded & 0x7F) | 0x80);
+			encoded >>>= 7;
+		}
+		packet[packetLength++] = (byte) encoded;
+
+		if(corruptFraction > 0 && random.nextDouble() < corruptFraction)
+			packetCorrupt = true;
+		if(nextChannel == 0 || packetLength + 6 > BinaryParser.MAX_PACKET - 2)
+			appendPacket();
+	}
+
+	/**
+	 * Encode the binary packet into the buffer, and start a new one.
+	 */
+	private void appendPacket() {
+		int length = BinaryParser.encodePacket(packet, packetLength, buffer, bufferEnd);
+		if(packetCorrupt) // noise on one byte, which may even split the packet in two
+			buffer[bufferEnd + random.nextInt(length - 1)] = (byte) random.nextInt(256);
+		bufferEnd += length;
+		packetLength = 0;
+		packetCorrupt = false;
+	}
+
+	/**
+	 * Append one line to the buffer.
+	 */
+	private void generateLine() {
+		int channel = nextChannel;
+		nextChannel = (nextChannel + 1) % channels;
+		linesGenerated++;
+
+		if(channel == 0) {
+			// start of a new screen
+			System.arraycopy(TelemetryParser.HOME, 0, buffer, bufferEnd, TelemetryParser.HOME.length);
+			bufferEnd += TelemetryParser.HOME.length;
+		}
+
+		// name, padded with spaces
+		int lineStart = bufferEnd;
+		byte[] name = names[channel];
+		for(int i = 0; i < TelemetryParser.VALUE_START; i++)
+			buffer[bufferEnd + i] = (i < name.length) ? name[i] : (byte) ' ';
+		bufferEnd += TelemetryParser.VALUE_START;
+
+		// value: a noisy sine wave, as a sign and five digits
+		int value = nextValue(channel);
+		buffer[bufferEnd++] = (byte) (value < 0 ? '-' : '+');
+		int magnitude = Math.abs(value);
+		for(int i = 4; i >= 0; i--) {
+			buffer[bufferEnd + i] = (byte) ('0' + (magnitude % 10));
+			magnitude /= 10;
+		}
+		bufferEnd += 5;
+
+		// the rest of the line
+		while(bufferEnd - lineStart < TelemetryParser.LINE_LENGTH)
+			buffer[bufferEnd++] = ' ';
+
+		if(corruptFraction > 0 && random.nextDouble() < corruptFraction) {
+			switch(random.nextInt(3)) {
+				case 0: bufferEnd -= 1 + random.nextInt(TelemetryParser.LINE_LENGTH); break;      // truncated
+				case 1: buffer[lineStart + TelemetryParser.VALUE_START + 3] = 'x'; break;         // bad digit
+				case 2: buffer[lineStart + random.nextInt(TelemetryParser.LINE_LENGTH)] = (byte) random.nextInt(256); break; // noise
+			}
+		}
+
+		buffer[bufferEnd++] = '\r';
+		buffer[bufferEnd++] = '\n';
+	}
+
+	@Override
+	public String toString() {
+		return PREFIX + ":channels=" + channels + ",rate=" + linesPerSecond + ",corrupt=" + corruptFraction + ",format=" + (binary ? "binary" : "text");
+	}
+
+}
@@ -0,0 +1,238 @@
+package com.farrellf.TelemetryGUI;
+
+/**
+ * Interprets incoming text and populates the database with new values.
+ *
+ * The text is a series of 62-character lines. The first line of each screen is prefixed with the "\x1B[H" (cursor home) escape sequence.
+ * The item name is everything before the first space, and the value is a signed integer in columns 12 through 17.
+ *
+ * The values of each screen are collected in a Frame, which is committed to the database when the next screen starts.
+ * If the firmware does not send the escape sequence, a frame is committed when an item repeats.
+ *
+ * Bytes are parsed in place: names are resolved to channel ids with a ChannelNameTable, and values are decoded directly from the bytes,
+ * so no objects are created per line. Each value is timestamped with the time its block of bytes was read. Only lines split across two calls to parse() are copied, into a reusable buffer.
+ *
+ * If bytes are lost, for example dropped by a ByteQueue, discontinuity() forgets the unfinished line and the unfinished screen,
+ * so the start of a line is never joined to the end of another. The first line after the gap is still used if it is complete,
+ * but it is not counted as rejected if it is not, since it is usually the end of a lost line.
+ *
+ * Lines, rejected lines (by reason) and unknown names are counted for each block, and added to the Database's IngestMetrics after the block is parsed.
+ *
+ * @author Farrell Farahbod
+ * @version 1.0
+ */
+public class TelemetryParser {
+
+	static final int LINE_LENGTH = 62;
+	static final int VALUE_START = 12;
+	static final int VALUE_END = 18;
+	static final byte[] HOME = {0x1B, '[', 'H'};
+
+	private Database db;
+	private ChannelNameTable channels;
+	private Frame frame;
+	private long timestamp;          // when the bytes being parsed were received
+	private byte[] partialLine;      // start of a line that continues in the next buffer
+	private int partialLength;
+	private boolean partialOverflow; // true if the partial line is too long to be valid
+	private boolean afterGap;        // true until the first line after lost bytes has been parsed
+	private IngestMetrics metrics;
+	private int blockLines;          // counts for the block being parsed
+	private int[] blockRejected;
+	private int blockUnknownNames;
+
+	public TelemetryParser(Database db) {
+		this(db, "");
+	}
+
+	/**
+	 * @param db			Database to add the values to
+	 * @param namespace		Namespace for the item names, or "" for the default namespace. See ChannelNameTable.
+	 */
+	public TelemetryParser(Database db, String namespace) {
+		this.db = db;
+		this.channels = new ChannelNameTable(db, namespace);
+		this.frame = new Frame();
+		this.partialLine = new byte[HOME.length + LINE_LENGTH];
+		this.partialLength = 0;
+		this.partialOverflow = false;
+		this.metrics = db.getIngestMetrics();
+		this.blockRejected = new int[IngestMetrics.Rejection.values().length];
+	}
+
+	/**
+	 * Parse a block of incoming bytes. Lines may be split across blocks.
+	 *
+	 * @param buffer	Buffer containing the bytes
+	 * @param offset	Index of the first byte
+	 * @param length	Number of bytes
+	 */
+	public void parse(byte[] buffer, int offset, int length) {
+		parse(buffer, offset, length, System.nanoTime());
+	}
+
+	/**
+	 * Parse a block of incoming bytes that was read earlier, for example taken from a ByteQueue. Lines may be split across blocks.
+	 *
+	 * @param buffer	Buffer containing the bytes
+	 * @param offset	Index of the first byte
+	 * @param length	Number of bytes
+	 * @param readTime	System.nanoTime() when the bytes were read, used as the timestamp of their values
+	 */
+	public void parse(byte[] buffer, int offset, int length, long readTime) {
+		long start = System.nanoTime();
+		timestamp = readTime;
+		int end = offset + length;
+		int lineStart = offset;
+
+		for(int i = offset; i < end; i++) {
+			byte b = buffer[i];
+			if(b != '\n' && b != '\r')
+				continue;
+
+			if(partialLength > 0 || partialOverflow) {
+				// finish the line that started in a previous buffer
+				appendPartial(buffer, lineStart, i - lineStart);
+				if(!partialOverflow)
+					parseLine(partialLine, 0, partialLength);
+				else
+					reject(IngestMetrics.Rejection.LENGTH);
+				partialLength = 0;
+				partialOverflow = false;
+				afterGap = false;
+			} else if(i > lineStart) {
+				parseLine(buffer, lineStart, i - lineStart);
+				afterGap = false;
+			}
+
+			lineStart = i + 1;
+		}
+
+		// keep the start of an unfinished line
+		appendPartial(buffer, lineStart, end - lineStart);
+
+		metrics.recordBlock(length, blockLines, blockRejected, blockUnknownNames, System.nanoTime() - start);
+		blockLines = 0;
+		for(int i = 0; i < blockRejected.length; i++)
+			blockRejected[i] = 0;
+		blockUnknownNames = 0;
+	}
+
+	/**
+	 * Bytes were lost before the next block: forget the unfinished line, and the values of the unfinished screen.
+	 */
+	public void discontinuity() {
+		partialLength = 0;
+		partialOverflow = false;
+		frame.clear();
+		afterGap = true;
+	}
+
+	/**
+	 * Count a line that was rejected as corrupt.
+	 *
+	 * @param reason	Why it was rejected
+	 */
+	private void reject(IngestMetrics.Rejection reason) {
+		if(afterGap)
+			return; // the end of a lost line, not corruption
+		blockLines++;
+		blockRejected[reason.ordinal()]++;
+	}
+
+	private void appendPartial(byte[] buffer, int offset, int length) {
+		if(partialLength + length > partialLine.length) {
+			partialOverflow = true; // empty or corrupt line, it will be ignored
+			return;
+		}
+		System.arraycopy(buffer, offset, partialLine, partialLength, length);
+		partialLength += length;
+	}
+
+	/**
+	 * Parse one line, without the line terminator.
+	 *
+	 * @param line		Buffer containing the line
+	 * @param start		Index of the first byte
+	 * @param length	Number of bytes
+	 */
+	private void parseLine(byte[] line, int start, int length) {
+		if(length == 0)
+			return; // between the \r and \n of a line terminator
+
+		if(length == HOME.length + LINE_LENGTH && line[start] == HOME[0] && line[start + 1] == HOME[1] && line[start + 2] == HOME[2]) {
+			// trim \x1B[H ASCII escape sequence, it marks the start of a new screen
+			start += HOME.length;
+			length -= HOME.length;
+			commitFrame();
+		}
+
+		if(length != LINE_LENGTH) {
+			reject(IngestMetrics.Rejection.LENGTH); // corrupt line
+			return;
+		}
+
+		// the name is everything before the first space, and must be printable ASCII
+		int nameEnd = start;
+		int lineEnd = start + length;
+		while(nameEnd < lineEnd && line[nameEnd] != ' ') {
+			if(line[nameEnd] < 0x21 || line[nameEnd] > 0x7E) {
+				reject(IngestMetrics.Rejection.NAME); // corrupt name
+				return;
+			}
+			nameEnd++;
+		}
+		if(nameEnd == start || nameEnd == lineEnd) {
+			reject(IngestMetrics.Rejection.NAME); // missing name
+			return;
+		}
+
+		// the value is a signed integer, the same syntax accepted by Integer.parseInt()
+		int i = start + VALUE_START;
+		int valueEnd = start + VALUE_END;
+		boolean negative = false;
+		if(line[i] == '-') {
+			negative = true;
+			i++;
+		} else if(line[i] == '+') {
+			i++;
+		}
+		if(i == valueEnd) {
+			reject(IngestMetrics.Rejection.VALUE); // sign without digits
+			return;
+		}
+
+		int value = 0;
+		for(; i < valueEnd; i++) {
+			int digit = line[i] - '0';
+			if(digit < 0 || digit > 9) {
+				reject(IngestMetrics.Rejection.VALUE); // corrupt value
+				return;
+			}
+			value = (value * 10) + digit;
+		}
+
+		// add to the frame
+		blockLines++;
+		int channel = channels.lookup(line, start, nameEnd - start);
+		if(channel == -1) {
+			blockUnknownNames++; // new name, it will be accepted if it is seen again
+			return;
+		}
+		if(frame.contains(channel))
+			commitFrame(); // the item repeated, so a new screen must have started
+		frame.add(channel, negative ? -value : value, timestamp);
+	}
+
+	/**
+	 * Commit the values collected so far to the database, and start a new frame.
+	 */
+	public void commitFrame() {
+		if(frame.size() == 0)
+			return;
+
+		db.commitFrame(frame);
+		frame.clear();
+	}
+
+}
@@ -0,0 +1,386 @@
+package com.farrellf.TelemetryGUI;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Streams live telemetry to any number of TCP clients, so several people can watch the robot while one process owns the serial port.
+ *
+ * The stream uses the binary protocol (see BinaryParser), so a client is simply another copy of this program connected to
+ * "tcp:host:port" instead of a serial port. Each new client first gets the definitions of all items, then every committed frame as one packet,
+ * and the definitions of new items as they appear. Only the first 255 items can be streamed, since the protocol's ids are one byte.
+ * Clients only receive: anything they send is ignored. There is no authentication, so only share on a trusted network.
+ *
+ * The server is a FrameListener. The ingest thread encodes each frame once, into buffers of its own, and appends the packet to the outbox
+ * of each client, taking only that client's lock. So ingest threads for different ports encode at the same time, and only wait for each
+ * other while appending to the same client. Definitions of new items, and new clients, are rare, and handled under the server's lock,
+ * so every client gets an item's definition before any of its values.
+ * A single thread with a Selector writes to the sockets. Each client has a bounded outbox and a buffer being sent, which are swapped
+ * when the buffer being sent is empty, so many frames go out in one write and the ingest thread never waits for a socket.
+ * If a client falls behind and its outbox is full, whole packets are dropped for that client only, and counted.
+ *
+ * @author Farrell Farahbod
+ * @version 1.0
+ */
+public class TelemetryServer implements FrameListener, Runnable {
+
+	static final String PREFIX = "tcp:";       // port names starting with this connect to a server, for example "tcp:localhost:5750"
+	static final int DEFAULT_PORT = 5750;
+	static final int OUTBOX_BYTES = 1 << 18;    // per client, for each of the two buffers
+	static final int PACKET_BYTES = BinaryParser.MAX_PACKET + BinaryParser.MAX_PACKET / 254 + 4; // largest encoded packet
+
+	/**
+	 * Buffers for encoding packets, one for each ingest thread, and one for definitions.
+	 */
+	private static class Encoder {
+
+		final byte[] records = new byte[BinaryParser.MAX_PACKET];
+		int recordsLength;
+		final byte[] packet = new byte[PACKET_BYTES];
+
+	}
+
+	/**
+	 * A connected client.
+	 */
+	private static class Client {
+
+		final SocketChannel channel;
+		final SelectionKey key;
+		ByteBuffer outbox;                      // appended to by the ingest thread, guarded by this
+		ByteBuffer sending;                     // only used by the server thread
+		long droppedPackets;                    // guarded by this
+
+		Client(SocketChannel channel, SelectionKey key) {
+			this.channel = channel;
+			this.key = key;
+			this.outbox = ByteBuffer.allocate(OUTBOX_BYTES);
+			this.sending = ByteBuffer.allocate(OUTBOX_BYTES);
+			this.sending.flip(); // empty, ready to be written
+		}
+
+		/**
+		 * Queue an encoded packet, or drop it if the outbox is full.
+		 */
+		synchronized void append(byte[] packet, int length) {
+			if(outbox.remaining() < length) {
+				droppedPackets++;
+				return;
+			}
+			outbox.put(packet, 0, length);
+		}
+
+		/**
+		 * Swap the outbox with the empty buffer being sent.
+		 *
+		 * @return		True if there is something to send
+		 */
+		synchronized boolean swap() {
+			if(outbox.position() == 0)
+				return false;
+			ByteBuffer full = outbox;
+			outbox = sending;
+			outbox.clear();
+			sending = full;
+			sending.flip();
+			return true;
+		}
+
+	}
+
+	private Database db;
+	private int port;
+	private ServerSocketChannel serverChannel;
+	private Selector selector;
+	private Thread thread;
+	private volatile boolean running;
+	private final AtomicBoolean wakeupPending;  // true if the selector has been woken up and has not run yet
+
+	private volatile Client[] clients;          // copied on write, guarded by this
+	private volatile int definedCount;          // number of items whose definitions have been sent, written while holding this
+	private final Encoder definitions;          // encodes definitions, guarded by this
+	private final ThreadLocal<Encoder> encoders;
+	private long droppedPackets;                // of clients that have disconnected, guarded by this
+
+	/**
+	 * Create a server. Call start() to begin accepting clients.
+	 *
+	 * @param db		The database to stream
+	 * @param port		TCP port to listen on, on all interfaces
+	 */
+	public TelemetryServer(Database db, int port) {
+		this.db = db;
+		this.port = port;
+		this.wakeupPending = new AtomicBoolean(false);
+		this.clients = new Client[0];
+		this.definitions = new Encoder();
+		this.encoders = new ThreadLocal<Encoder>() {
+			@Override
+			protected Encoder initialValue() {
+				return new Encoder();
+			}
+		};
+	}
+
+	/**
+	 * Open the listening socket, and start streaming frames.
+	 *
+	 * @throws IOException	If the port can not be opened
+	 */
+	public void start() throws IOException {
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(new InetSocketAddress(port));
+		serverChannel.configureBlocking(false);
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+		running = true;
+		db.addFrameListener(this);
+		thread = new Thread(this, "Telemetry server");
+		thread.setDaemon(true);
+		thread.start();
+		System.out.println("Sharing telemetry on TCP port " + port + ".");
+	}
+
+	/**
+	 * Disconnect all clients and close the listening socket.
+	 */
+	public void stop() {
+		db.removeFrameListener(this);
+		running = false;
+		selector.wakeup();
+		try {
+			thread.join();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		System.out.println("Stopped sharing telemetry. " + getDroppedPackets() + " packets dropped for slow clients.");
+	}
+
+	/**
+	 * Called on the ingest threads: encode the frame once, and queue it for every client.
+	 */
+	@Override
+	public void frameCommitted(Frame frame) {
+		// define any items that were added since the last frame, before queueing any of their values
+		int channelCount = Math.min(db.getChannelCount(), BinaryParser.IDS);
+		if(channelCount > definedCount)
+			defineChannels(channelCount);
+
+		Client[] clients = this.clients;
+		if(clients.length == 0)
+			return;
+
+		Encoder encoder = encoders.get();
+		byte[] records = encoder.records;
+		for(int i = 0; i < frame.size; i++) {
+			int channel = frame.channels[i];
+			if(channel >= BinaryParser.IDS)
+				continue;
+			if(encoder.recordsLength + 6 > BinaryParser.MAX_PACKET - 2)
+				appendPacket(encoder, clients); // a very large frame, continue in another packet
+
+			// id, then the zigzag encoded value as a varint
+			int value = frame.values[i];
+			int encoded = (value << 1) ^ (value >> 31);
+			records[encoder.recordsLength++] = (byte) channel;
+			while((encoded & ~0x7F) != 0) {
+				records[encoder.recordsLength++] = (byte) ((encoded & 0x7F) | 0x80);
+				encoded >>>= 7;
+			}
+			records[encoder.recordsLength++] = (byte) encoded;
+		}
+		appendPacket(encoder, clients);
+
+		if(wakeupPending.compareAndSet(false, true))
+			selector.wakeup();
+	}
+
+	/**
+	 * Queue the definitions of new items for every client. New clients get the definitions when they connect.
+	 *
+	 * @param channelCount	Number of items that should be defined
+	 */
+	private synchronized void defineChannels(int channelCount) {
+		if(channelCount <= definedCount)
+			return; // another ingest thread defined them first
+		for(Client client : clients)
+			appendDefinitions(client, definedCount, channelCount);
+		definedCount = channelCount;
+	}
+
+	/**
+	 * Encode the records into a packet, and queue it for the clients.
+	 */
+	private static void appendPacket(Encoder encoder, Client[] clients) {
+		if(encoder.recordsLength == 0)
+			return;
+		int length = BinaryParser.encodePacket(encoder.records, encoder.recordsLength, encoder.packet, 0);
+		for(Client client : clients)
+			client.append(encoder.packet, length);
+		encoder.recordsLength = 0;
+	}
+
+	/**
+	 * Queue the definitions of a range of items for a client. Only call this while holding the server's lock.
+	 */
+	private void appendDefinitions(Client client, int firstChannel, int endChannel) {
+		Client[] one = new Client[] {client};
+		byte[] records = definitions.records;
+		for(int channel = firstChannel; channel < endChannel; channel++) {
+			byte[] name = db.getChannelName(channel).getBytes(StandardCharsets.ISO_8859_1);
+			if(name.length > 255)
+				name = Arrays.copyOf(name, 255);
+			if(definitions.recordsLength + 3 + name.length > BinaryParser.MAX_PACKET - 2)
+				appendPacket(definitions, one);
+			records[definitions.recordsLength++] = (byte) BinaryParser.DEFINITION;
+			records[definitions.recordsLength++] = (byte) channel;
+			records[definitions.recordsLength++] = (byte) name.length;
+			System.arraycopy(name, 0, records, definitions.recordsLength, name.length);
+			definitions.recordsLength += name.length;
+		}
+		appendPacket(definitions, one);
+	}
+
+	/**
+	 * The server thread: accept clients, and write queued packets to them.
+	 */
+	@Override
+	public void run() {
+		ByteBuffer ignored = ByteBuffer.allocate(1024);
+		try {
+			while(running) {
+				selector.select();
+				wakeupPending.set(false);
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while(keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if(!key.isValid())
+						continue;
+					if(key.isAcceptable()) {
+						accept();
+					} else if(key.isReadable()) {
+						// clients do not send anything, except to close the connection
+						ignored.clear();
+						try {
+							if(((SocketChannel) key.channel()).read(ignored) == -1)
+								disconnect((Client) key.attachment(), "disconnected");
+						} catch(IOException e) {
+							disconnect((Client) key.attachment(), "disconnected");
+						}
+					}
+				}
+
+				for(Client client : clients)
+					write(client);
+			}
+		} catch(IOException e) {
+			System.err.println("Error sharing telemetry on TCP port " + port + ".");
+			System.err.println(e.getClass().toString());
+			db.removeFrameListener(this);
+		} finally {
+			for(Client client : clients)
+				disconnect(client, "disconnected, the server stopped");
+			try { selector.close(); } catch(IOException e) {}
+			try { serverChannel.close(); } catch(IOException e) {}
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel = serverChannel.accept();
+		if(channel == null)
+			return;
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+		Client client = new Client(channel, key);
+		key.attach(client);
+
+		synchronized(this) {
+			// the definitions are queued before the client can get any frame, and defineChannels() also holds this lock
+			appendDefinitions(client, 0, definedCount);
+			Client[] newClients = Arrays.copyOf(clients, clients.length + 1);
+			newClients[clients.length] = client;
+			clients = newClients;
+		}
+		System.out.println("Telemetry client " + channel.getRemoteAddress() + " connected.");
+	}
+
+	/**
+	 * Write as much as the socket accepts, and ask to be told when it can take more if necessary.
+	 */
+	private void write(Client client) {
+		if(!client.key.isValid())
+			return;
+		try {
+			while(client.sending.hasRemaining() || client.swap()) {
+				client.channel.write(client.sending);
+				if(client.sending.hasRemaining())
+					break; // the socket is full
+			}
+			int ops = client.sending.hasRemaining() ? (SelectionKey.OP_READ | SelectionKey.OP_WRITE) : SelectionKey.OP_READ;
+			if(client.key.interestOps() != ops)
+				client.key.interestOps(ops);
+		} catch(IOException e) {
+			disconnect(client, "disconnected");
+		}
+	}
+
+	private void disconnect(Client client, String reason) {
+		String address = "";
+		try {
+			address = client.channel.getRemoteAddress().toString() + " ";
+		} catch(Exception e) {}
+		client.key.cancel();
+		try { client.channel.close(); } catch(IOException e) {}
+
+		long dropped;
+		synchronized(client) {
+			dropped = client.droppedPackets;
+		}
+		synchronized(this) {
+			Client[] newClients = new Client[clients.length];
+			int count = 0;
+			for(Client c : clients)
+				if(c != client)
+					newClients[count++] = c;
+			if(count == clients.length)
+				return; // already disconnected
+			clients = Arrays.copyOf(newClients, count);
+			droppedPackets += dropped;
+		}
+		System.out.println("Telemetry client " + address + reason + ", " + dropped + " packets dropped.");
+	}
+
+	/**
+	 * @return		Number of connected clients
+	 */
+	public int getClientCount() {
+		return clients.length;
+	}
+
+	/**
+	 * @return		Number of packets dropped because a client fell behind, for all clients so far
+	 */
+	public synchronized long getDroppedPackets() {
+		long dropped = droppedPackets;
+		for(Client client : clients) {
+			synchronized(client) {
+				dropped += client.droppedPackets;
+			}
+		}
+		return dropped;
+	}
+
+}
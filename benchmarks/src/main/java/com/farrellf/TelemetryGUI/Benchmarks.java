@@ -0,0 +1,28 @@
+package com.farrellf.TelemetryGUI;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks with the GC profiler, so every result includes the allocation rate next to ops/s.
+ * Accepts the usual JMH command line options, for example a regular expression to run only some benchmarks:
+ *   java -jar target/benchmarks.jar Parser
+ *
+ * @author Farrell Farahbod
+ * @version 1.0
+ */
+public class Benchmarks {
+
+	public static void main(String[] args) throws Exception {
+		Options options = new OptionsBuilder()
+			.parent(new CommandLineOptions(args))
+			.addProfiler(GCProfiler.class)
+			.jvmArgsAppend("-Djava.awt.headless=true")
+			.build();
+		new Runner(options).run();
+	}
+
+}
@@ -0,0 +1,79 @@
+package com.farrellf.TelemetryGUI;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Painting a LineGraph chart into an offscreen image, with a full history and several amounts of it shown.
+ * One new value arrives before each paint, like a live link.
+ *
+ * @author Farrell Farahbod
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChartBenchmark {
+
+	static final int WIDTH = 800;
+	static final int HEIGHT = 300;
+	static final int VALUES = 1 << 18; // history added before painting, mostly sealed into chunks
+
+	// samples shown, 0 for the whole history
+	@Param({"500", "5000", "50000", "0"})
+	int history;
+
+	Database db;
+	int channel;
+	LineGraph.Chart chart;
+	BufferedImage image;
+	Graphics2D graphics;
+	int nextValue;
+
+	@Setup
+	public void setup() {
+		db = new Database();
+		channel = db.addChannel("Item");
+		for(int i = 0; i < VALUES; i++)
+			db.addValue(channel, value());
+
+		chart = new LineGraph.Chart(db, channel, -100, 100, 100.0, history);
+		chart.setSize(WIDTH, HEIGHT);
+		image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+		graphics = image.createGraphics();
+	}
+
+	@TearDown
+	public void tearDown() {
+		graphics.dispose();
+	}
+
+	@Benchmark
+	public BufferedImage paint() {
+		db.addValue(channel, value());
+		chart.paintComponent(graphics);
+		return image;
+	}
+
+	private int value() {
+		nextValue++;
+		return (int) (Math.sin(nextValue * 0.001) * 9000) + (nextValue % 7) * 100;
+	}
+
+}
@@ -0,0 +1,113 @@
+package com.farrellf.TelemetryGUI;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Storing and querying values, alone and with one writer and several readers running at the same time,
+ * like the serial port thread, the main window and the line graphs.
+ *
+ * @author Farrell Farahbod
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DatabaseBenchmark {
+
+	static final int CHANNELS = 32;
+
+	// number of values copied by a history read, like a line graph showing that many samples
+	@Param({"500", "5000"})
+	int historyLength;
+
+	Database db;
+	int nextChannel;
+	int nextValue;
+
+	@Setup
+	public void setup() {
+		db = new Database();
+		for(int i = 0; i < CHANNELS; i++)
+			db.addChannel("Item" + i);
+		for(int i = 0; i < Database.DEFAULT_CAPACITY; i++)
+			for(int channel = 0; channel < CHANNELS; channel++)
+				db.addValue(channel, i);
+	}
+
+	/**
+	 * Per thread state for the history reads.
+	 */
+	@State(Scope.Thread)
+	public static class Reader {
+		int[] buffer;
+		int[] lastValues;
+
+		@Setup
+		public void setup(DatabaseBenchmark benchmark) {
+			buffer = new int[benchmark.historyLength];
+			lastValues = new int[CHANNELS];
+		}
+	}
+
+	// single threaded
+
+	@Benchmark
+	public void addValue() {
+		db.addValue(nextChannel, nextValue++);
+		nextChannel = (nextChannel + 1) % CHANNELS;
+	}
+
+	@Benchmark
+	public int getLastValue() {
+		nextChannel = (nextChannel + 1) % CHANNELS;
+		return db.getLastValue(nextChannel);
+	}
+
+	@Benchmark
+	public int getValues(Reader reader) {
+		long first = db.getListSize(0) - historyLength;
+		return db.getValues(0, first, reader.buffer, historyLength);
+	}
+
+	// one writer with concurrent readers
+
+	@Benchmark
+	@Group("concurrent")
+	@GroupThreads(1)
+	public void concurrentAddValue() {
+		addValue();
+	}
+
+	@Benchmark
+	@Group("concurrent")
+	@GroupThreads(2)
+	public void concurrentGetLastValues(Reader reader, Blackhole blackhole) {
+		db.getLastValues(reader.lastValues);
+		blackhole.consume(reader.lastValues);
+	}
+
+	@Benchmark
+	@Group("concurrent")
+	@GroupThreads(2)
+	public int concurrentGetValues(Reader reader) {
+		return getValues(reader);
+	}
+
+}
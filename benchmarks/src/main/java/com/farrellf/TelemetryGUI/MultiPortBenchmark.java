@@ -0,0 +1,78 @@
+package com.farrellf.TelemetryGUI;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Several ports parsing into one Database, each thread acting as the SerialPortListener of one port with its own namespace.
+ * One operation is one line. Run with -t 1, -t 2, -t 4 ... to see how the total throughput scales with the number of ports.
+ *
+ * @author Farrell Farahbod
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MultiPortBenchmark {
+
+	static final int LINES = 4096;
+	static final int CHANNELS = 32;
+	static final int CHUNK = 64; // bytes per read() from the serial port
+
+	Database db;
+	AtomicInteger ports;
+
+	@Setup
+	public void setup() {
+		db = new Database();
+		ports = new AtomicInteger();
+	}
+
+	/**
+	 * The parser and text of one port.
+	 */
+	@State(Scope.Thread)
+	public static class Port {
+
+		byte[] bytes;
+		TelemetryParser parser;
+
+		@Setup
+		public void setup(MultiPortBenchmark shared) throws IOException {
+			TelemetryGenerator generator = new TelemetryGenerator(CHANNELS, 0, 0);
+			bytes = new byte[LINES * TelemetryGenerator.LINE_BYTES];
+			int length = 0;
+			while(length < bytes.length)
+				length += generator.read(bytes, length, bytes.length - length);
+			generator.close();
+
+			parser = new TelemetryParser(shared.db, "port" + shared.ports.getAndIncrement());
+			parser.parse(bytes, 0, bytes.length); // define the channels
+		}
+
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LINES)
+	public void parse(Port port) {
+		byte[] bytes = port.bytes;
+		for(int offset = 0; offset < bytes.length; offset += CHUNK)
+			port.parser.parse(bytes, offset, Math.min(CHUNK, bytes.length - offset));
+	}
+
+}
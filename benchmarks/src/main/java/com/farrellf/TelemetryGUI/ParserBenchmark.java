@@ -0,0 +1,99 @@
+package com.farrellf.TelemetryGUI;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing the text (or binary packets) sent by the firmware, as done for the bytes read by the SerialPortListener.
+ * One operation is one line, or one value of the binary protocol.
+ *
+ * @author Farrell Farahbod
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+	static final int LINES = 4096;
+
+	@Param({"32"})
+	int channels;
+
+	@Param({"0", "0.01"})
+	double corrupt;
+
+	// bytes per read() from the serial port
+	@Param({"64", "8192"})
+	int chunk;
+
+	@Param({"text", "binary"})
+	String format;
+
+	byte[] bytes;
+	Database db;
+	TelemetryParser parser;
+	BinaryParser binaryParser;
+
+	@Setup
+	public void setup() throws IOException {
+		db = new Database();
+		if(format.equals("binary")) {
+			// packets holding LINES values from the synthetic source, read a byte at a time until the last packet is complete
+			TelemetryGenerator generator = new TelemetryGenerator(channels, 0, corrupt, true);
+			binaryParser = new BinaryParser(db);
+			bytes = new byte[LINES * 8];
+			int length = 0;
+			long packets = 0;
+			while(packets < LINES / channels + LINES / channels / TelemetryGenerator.DEFINITION_PERIOD + 1) {
+				length += generator.read(bytes, length, 1);
+				if(bytes[length - 1] == 0)
+					packets++;
+			}
+			generator.close();
+			bytes = Arrays.copyOf(bytes, length);
+			binaryParser.parse(bytes, 0, bytes.length); // define the channels
+			return;
+		}
+
+		// a block of text from the synthetic source
+		TelemetryGenerator generator = new TelemetryGenerator(channels, 0, corrupt);
+		bytes = new byte[LINES * TelemetryGenerator.LINE_BYTES];
+		int length = 0;
+		while(length < bytes.length)
+			length += generator.read(bytes, length, bytes.length - length);
+		generator.close();
+
+		parser = new TelemetryParser(db);
+		parser.parse(bytes, 0, bytes.length); // define the channels
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LINES)
+	public void parse() {
+		if(binaryParser != null) {
+			for(int offset = 0; offset < bytes.length; offset += chunk)
+				binaryParser.parse(bytes, offset, Math.min(chunk, bytes.length - offset));
+			return;
+		}
+		for(int offset = 0; offset < bytes.length; offset += chunk)
+			parser.parse(bytes, offset, Math.min(chunk, bytes.length - offset));
+	}
+
+}
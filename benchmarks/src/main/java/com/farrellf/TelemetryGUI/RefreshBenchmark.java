@@ -0,0 +1,70 @@
+package com.farrellf.TelemetryGUI;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One refresh of the main window by its timer: TelemetryGUI.refreshItems() with N TelemetryItems.
+ * The items are not shown, so this measures the cost of updating the components, not of painting them.
+ *
+ * @author Farrell Farahbod
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RefreshBenchmark {
+
+	@Param({"10", "50", "200"})
+	int itemCount;
+
+	// steady:   the values do not change
+	// noisy:    every value changes, within a few counts of a steady value
+	// changing: every value changes to one never seen before
+	@Param({"steady", "noisy", "changing"})
+	String values;
+
+	Database db;
+	List<TelemetryGUI.TelemetryItem> items;
+	int[] lastValues;
+	int nextValue;
+
+	@Setup
+	public void setup() {
+		db = new Database();
+		items = new ArrayList<TelemetryGUI.TelemetryItem>();
+		for(int i = 0; i < itemCount; i++) {
+			int channel = db.addChannel("Item" + i);
+			db.addValue(channel, 0);
+			items.add(new TelemetryGUI.TelemetryItem(db, null, "Item" + i, channel, -100, 100, 100.0, "+000.00;-#", "Degrees", 0));
+		}
+		lastValues = new int[0];
+	}
+
+	@Benchmark
+	public int[] refresh() {
+		if(!values.equals("steady")) {
+			nextValue++;
+			for(int channel = 0; channel < itemCount; channel++)
+				db.addValue(channel, values.equals("noisy") ? 1000 + (((nextValue + channel) * 7) & 15) : nextValue);
+		}
+		lastValues = TelemetryGUI.refreshItems(db, items, lastValues);
+		return lastValues;
+	}
+
+}